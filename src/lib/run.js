@@ -530,6 +530,8 @@ async function run(
 			try {
 				await fs.readFile(); // Because reading the remote file will create cache file
 				path = cacheFile;
+				// rewritten in place, drop what the server cached about it
+				webServer?.invalidateFiles(path);
 			} catch (err) {
 				error(id);
 				isLoading = false;
@@ -549,6 +551,7 @@ async function run(
 				await fsOperation(tempFile).writeFile(fileContent);
 			}
 			path = tempFile;
+			webServer?.invalidateFiles(path);
 		}
 
 		webServer?.send(id, {
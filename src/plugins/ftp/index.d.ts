@@ -2,9 +2,44 @@ interface FtpOptions {
   connectionMode: 'passive' | 'active';
   securityType: 'ftp' | 'ftps';
   encoding: 'utf8' | 'binary';
+  /** Sessions opened per connection, so transfers don't block browsing. Defaults to 3, applied to an open connection too */
+  poolSize?: number;
+  /** Milliseconds directory listings are reused for, 0 disables the cache. Defaults to 10000, applied to an open connection too */
+  cacheTtl?: number;
 }
 
 type SuccessCallback = (res: any) => void;
+
+interface FtpTransferStats {
+  type: 'progress' | 'complete';
+  transferId: string;
+  /** Byte the transfer was resumed from, 0 if it started over */
+  offset: number;
+  /** Bytes of the file transferred so far */
+  bytes: number;
+  /** Size of the file, -1 if unknown */
+  total: number;
+  /** Milliseconds since the transfer started */
+  elapsed: number;
+  bytesPerSecond: number;
+}
+
+interface FtpTransferOptions {
+  /** Id to cancel the transfer with, generated if omitted */
+  transferId?: string;
+  /** Bytes copied per read and used for the data socket buffers. Defaults to 262144 */
+  bufferSize?: number;
+  /** Called at most every progressInterval milliseconds while transferring */
+  onProgress?: (stats: FtpTransferStats) => void;
+  /** Defaults to 250 */
+  progressInterval?: number;
+  /**
+   * Continue from the partial file at the destination instead of starting
+   * over, if it isn't larger than the source. Only use it when the partial
+   * file is known to come from the same source file
+   */
+  resume?: boolean;
+}
 type ErrorCallback = (err: any) => void;
 
 interface Ftp{
@@ -17,11 +52,16 @@ interface Ftp{
     onSuccess: SuccessCallback,
     onError: ErrorCallback
   ): void;
+  /**
+   * Link entries report linkResolved: false until their target is known.
+   * Pass resolveLinks: false to skip resolving and render right away
+   */
   listDirectory(
     id: string, // connection id
     path: string,
     onSuccess: SuccessCallback,
-    onError: ErrorCallback
+    onError: ErrorCallback,
+    options?: { resolveLinks?: boolean },
   ): void;
   execCommand(
     id: string, // connection id
@@ -40,19 +80,36 @@ interface Ftp{
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
   ): void;
+  /**
+   * Resolves with FtpTransferStats of type 'complete'
+   */
   downloadFile(
     id: string, // connection id
     remotePath: string,
     localPath: string,
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
+    options?: FtpTransferOptions,
   ): void;
+  /**
+   * Resolves with FtpTransferStats of type 'complete'
+   */
   uploadFile(
     id: string, // connection id
     localPath: string,
     remotePath: string,
     onSuccess: SuccessCallback,
     onError: ErrorCallback,
+    options?: FtpTransferOptions,
+  ): void;
+  /**
+   * Aborts a running download or upload, which then fails with
+   * 'Transfer cancelled.'
+   */
+  cancelTransfer(
+    transferId: string,
+    onSuccess: SuccessCallback,
+    onError: ErrorCallback,
   ): void;
   deleteFile(
     id: string, // connection id
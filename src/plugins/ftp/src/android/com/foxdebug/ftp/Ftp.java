@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.net.ftp.*;
 import org.apache.commons.net.ftp.parser.ParserInitializationException;
 import org.apache.cordova.CallbackContext;
@@ -37,7 +38,8 @@ import org.json.JSONObject;
 
 public class Ftp extends CordovaPlugin {
 
-  HashMap<String, FTPClient> ftpProfiles = new HashMap<String, FTPClient>();
+  ConcurrentHashMap<String, FtpConnectionPool> ftpProfiles = new ConcurrentHashMap<String, FtpConnectionPool>();
+  ConcurrentHashMap<String, FtpTransfer> transfers = new ConcurrentHashMap<String, FtpTransfer>();
   Context context;
   Activity activity;
   String connectionID;
@@ -88,7 +90,6 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
-            int reply;
             int port = args.optInt(1);
             String host = args.optString(0);
             String username = args.optString(2);
@@ -96,66 +97,107 @@ public class Ftp extends CordovaPlugin {
             String defaultPath = args.optString(4);
             String securityType = args.optString(5);
             String connectionMode = args.optString(6);
-            String encryption = args.optString(7);
+            JSONObject options = args.optJSONObject(7);
             String encoding = args.optString(8);
             String ftpId = getFtpId(host, port, username);
+            FtpConnectionPool pool = ftpProfiles.get(ftpId);
             FTPClient ftp = null;
 
+            if (options == null) {
+              options = new JSONObject();
+            }
+
             try {
-              if (ftpProfiles.containsKey(ftpId)) {
-                ftp = ftpProfiles.get(ftpId);
-                reply = ftp.getReplyCode();
-                if (ftp.isConnected() && FTPReply.isPositiveCompletion(reply)) {
-                  ftp.setControlEncoding("UTF-8");
-                  ftp.setAutodetectUTF8(true);
-                  System.setProperty("ftp.client.encoding", "UTF-8");
-                  // test if connection is still valid
-                  ftp.sendNoOp();
-                  Log.d("FTP", "FTPClient (" + ftpId + ") is connected");
-                  callback.success(ftpId);
-                  return;
+              if (pool != null) {
+                // options given again apply to the existing pool, the ones
+                // left out keep their current value
+                if (options.has("poolSize")) {
+                  pool.resize(options.optInt("poolSize", pool.size()));
+                }
+                if (options.has("cacheTtl")) {
+                  pool.listings.setTtl(
+                    options.optLong("cacheTtl", pool.listings.ttl())
+                  );
                 }
-                Log.d("FTP", "FTPClient (" + ftpId + ") is not connected");
-                ftp.disconnect();
-                Log.d("FTP", "FTPClient (" + ftpId + ") disconnecting...");
-              } else {
-                Log.d("FTP", "Creating new FTPClient (" + ftpId + ")");
-                ftp = new FTPClient();
-                ftpProfiles.put(ftpId, ftp);
-              }
 
-              Log.d("FTP", "FTPClient (" + ftpId + ") connecting...");
-              ftp.connect(host, port);
-              ftp.setControlKeepAliveTimeout(300);
-              if (connectionMode.equals("active")) {
-                Log.d("FTP", "Entering Local Active mode");
-                ftp.enterLocalActiveMode();
-              } else {
-                Log.d("FTP", "Entering Passive Active mode");
-                ftp.enterLocalPassiveMode();
+                // checking out a session probes it with NOOP and reconnects
+                // if it went stale
+                ftp = pool.borrow();
+                pool.release(ftp);
+                Log.d("FTP", "FTPClient (" + ftpId + ") is connected");
+                callback.success(ftpId);
+                return;
               }
 
-              Log.d("FTP", "FTPClient (" + ftpId + ") logging in...");
-              ftp.login(username, password);
-
-              reply = ftp.getReplyCode();
-              if (!FTPReply.isPositiveCompletion(reply)) {
-                ftp.disconnect();
-                Log.d(
-                  "FTP",
-                  "FTPClient (" + ftpId + ") server refused connection."
+              Log.d("FTP", "Creating new FTPClient pool (" + ftpId + ")");
+              pool =
+                new FtpConnectionPool(
+                  ftpId,
+                  options.optInt("poolSize", FtpConnectionPool.DEFAULT_SIZE),
+                  new FtpListingCache(
+                    options.optLong("cacheTtl", FtpListingCache.DEFAULT_TTL)
+                  ),
+                  new FtpConnectionPool.Connector() {
+                    @Override
+                    public void connect(FTPClient client) throws IOException {
+                      client.setControlEncoding("UTF-8");
+                      client.setAutodetectUTF8(true);
+
+                      Log.d("FTP", "FTPClient (" + ftpId + ") connecting...");
+                      client.connect(host, port);
+                      client.setControlKeepAliveTimeout(300);
+                      if (connectionMode.equals("active")) {
+                        Log.d("FTP", "Entering Local Active mode");
+                        client.enterLocalActiveMode();
+                      } else {
+                        Log.d("FTP", "Entering Passive Active mode");
+                        client.enterLocalPassiveMode();
+                      }
+
+                      Log.d("FTP", "FTPClient (" + ftpId + ") logging in...");
+                      client.login(username, password);
+
+                      int reply = client.getReplyCode();
+                      if (!FTPReply.isPositiveCompletion(reply)) {
+                        Log.d(
+                          "FTP",
+                          "FTPClient (" + ftpId + ") server refused connection."
+                        );
+                        throw new IOException("FTP server refused connection.");
+                      }
+
+                      client.setListHiddenFiles(true);
+
+                      // MLST in FEAT implies MLSD as well (RFC 3659)
+                      FtpConnectionPool.Session session =
+                        (FtpConnectionPool.Session) client;
+                      session.machineListing = client.hasFeature("MLST");
+                      Log.d(
+                        "FTP",
+                        "FTPClient (" +
+                        ftpId +
+                        ") machine listings: " +
+                        session.machineListing
+                      );
+                    }
+                  }
                 );
-                callback.error("FTP server refused connection.");
-                return;
-              }
 
-              ftp.setListHiddenFiles(true);
-              ftpProfiles.put(ftpId, ftp);
+              // open the first session now, so a bad login fails connect
+              ftp = pool.borrow();
+              pool.release(ftp);
+              System.setProperty("ftp.client.encoding", "UTF-8");
+              FtpConnectionPool existing = ftpProfiles.putIfAbsent(ftpId, pool);
+              if (existing != null) {
+                // a concurrent connect won the race, keep its sessions
+                pool.close();
+              }
               Log.d("FTP", "FTPClient (" + ftpId + ") connected");
               callback.success(ftpId);
             } catch (IOException e) {
               Log.e("FTP", "FTPClient (" + ftpId + ")", e);
-              if (ftp != null) {
+              if (pool != null) {
+                pool.close();
                 ftpProfiles.remove(ftpId);
               }
 
@@ -168,7 +210,8 @@ public class Ftp extends CordovaPlugin {
             } catch (Exception e) {
               Log.e("FTP", "FTPClient (" + ftpId + ")", e);
 
-              if (ftp != null) {
+              if (pool != null) {
+                pool.close();
                 ftpProfiles.remove(ftpId);
               }
 
@@ -199,18 +242,172 @@ public class Ftp extends CordovaPlugin {
       lastSepIndex = path.substring(0, lastSepIndex).lastIndexOf('/');
     }
 
+    if (lastSepIndex == 0) {
+      return "/";
+    }
     return path.substring(0, lastSepIndex);
   }
 
+  /**
+   * Resolves whether link targets are files or directories. Targets are
+   * looked up in the listing of their parent directory, so links that point
+   * into the same directory cost one listing, or none if it is cached,
+   * instead of one LIST per link.
+   *
+   * @param ftp
+   * @param pool
+   * @param directory directory the links were listed in
+   * @param links link entries of the listing, updated in place
+   * @throws JSONException
+   */
+  private void resolveLinks(
+    FTPClient ftp,
+    FtpConnectionPool pool,
+    String directory,
+    List<JSONObject> links
+  ) throws JSONException {
+    HashMap<String, FTPFile[]> parents = new HashMap<String, FTPFile[]>();
+    for (JSONObject link : links) {
+      String linkTarget = link.getString("link");
+      String linkPath = linkTarget.startsWith("/")
+        ? linkTarget
+        : joinPath(directory, linkTarget);
+      String parentPath = getParentPath(linkPath);
+
+      FTPFile[] siblings;
+      if (parents.containsKey(parentPath)) {
+        siblings = parents.get(parentPath);
+      } else {
+        siblings = pool.listings.get(parentPath);
+        if (siblings == null) {
+          try {
+            siblings = list(ftp, parentPath);
+            pool.listings.put(parentPath, siblings);
+          } catch (IOException e) {
+            Log.d("FTP", "Unable to resolve links in " + parentPath, e);
+          }
+        }
+        parents.put(parentPath, siblings);
+      }
+
+      FTPFile target = find(siblings, getBaseName(linkPath));
+      // links to links and broken links stay unresolved
+      if (target != null && !target.isSymbolicLink()) {
+        link.put("isFile", target.isFile());
+        link.put("isDirectory", target.isDirectory());
+        link.put("url", linkPath);
+        link.put("linkResolved", true);
+      }
+    }
+  }
+
+  /**
+   * Lists a directory with MLSD when the server supports it, which gives
+   * exact types, sizes and UTC times without guessing the LIST format, and
+   * with LIST otherwise
+   *
+   * @param ftp session checked out from a pool
+   * @param path
+   * @return
+   * @throws IOException
+   */
+  private static FTPFile[] list(FTPClient ftp, String path)
+    throws IOException {
+    FtpConnectionPool.Session session = (FtpConnectionPool.Session) ftp;
+    if (session.machineListing) {
+      FTPFile[] files = ftp.mlistDir(path);
+      if (FTPReply.isPositiveCompletion(ftp.getReplyCode())) {
+        List<FTPFile> entries = new ArrayList<FTPFile>(files.length);
+        for (FTPFile file : files) {
+          if (file != null && !isSelfOrParent(file)) {
+            entries.add(file);
+          }
+        }
+        return entries.toArray(new FTPFile[entries.size()]);
+      }
+      if (ftp.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+        return new FTPFile[0];
+      }
+      // advertised but not usable, e.g. rejected by a proxy
+      Log.d("FTP", "MLSD failed, falling back to LIST");
+      session.machineListing = false;
+    }
+    return ftp.listFiles(path);
+  }
+
+  /**
+   * Stats a single path with MLST when supported, and with LIST otherwise
+   *
+   * @param ftp session checked out from a pool
+   * @param path
+   * @return the entry, or null if it doesn't exist
+   * @throws IOException
+   */
+  private static FTPFile stat(FTPClient ftp, String path) throws IOException {
+    FtpConnectionPool.Session session = (FtpConnectionPool.Session) ftp;
+    if (session.machineListing) {
+      FTPFile file = ftp.mlistFile(path);
+      if (file != null || ftp.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+        return file;
+      }
+      Log.d("FTP", "MLST failed, falling back to LIST");
+      session.machineListing = false;
+    }
+    FTPFile[] files = ftp.listFiles(path);
+    return files != null && files.length > 0 ? files[0] : null;
+  }
+
+  /**
+   * MLSD may list the directory itself and its parent as cdir and pdir
+   */
+  private static boolean isSelfOrParent(FTPFile file) {
+    String name = file.getName();
+    if (".".equals(name) || "..".equals(name)) {
+      return true;
+    }
+    String raw = file.getRawListing();
+    if (raw == null) {
+      return false;
+    }
+    raw = raw.toLowerCase();
+    return raw.contains("type=cdir;") || raw.contains("type=pdir;");
+  }
+
+  private static long lastModified(FTPFile file) {
+    return file.getTimestamp() != null
+      ? file.getTimestamp().getTimeInMillis()
+      : 0;
+  }
+
+  private static boolean containsName(FTPFile[] files, String name) {
+    return find(files, name) != null;
+  }
+
+  private static FTPFile find(FTPFile[] files, String name) {
+    if (files == null) {
+      return null;
+    }
+    for (FTPFile file : files) {
+      if (file != null && name.equals(file.getName())) {
+        return file;
+      }
+    }
+    return null;
+  }
+
   public void listDirectory(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
+              JSONObject options = args.optJSONObject(2);
+              boolean resolveLinks =
+                options == null || options.optBoolean("resolveLinks", true);
 
               if (ftpId == null || ftpId.isEmpty()) {
                 callback.error("FTP ID is required.");
@@ -221,13 +418,18 @@ public class Ftp extends CordovaPlugin {
                 path = "/";
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
 
-              FTPFile[] files = ftp.listFiles(path);
+              FTPFile[] files = pool.listings.get(path);
+              if (files == null) {
+                ftp = pool.borrow();
+                files = list(ftp, path);
+                pool.listings.put(path, files);
+              }
               Log.d(
                 "FTP",
                 "FTPClient (" + ftpId + ") Listing files in " + path
@@ -238,6 +440,7 @@ public class Ftp extends CordovaPlugin {
               );
 
               JSONArray jsonFiles = new JSONArray();
+              List<JSONObject> links = new ArrayList<JSONObject>();
 
               for (FTPFile file : files) {
                 String filename = file.getName();
@@ -254,24 +457,13 @@ public class Ftp extends CordovaPlugin {
                   jsonFile.put("isLink", true);
                   String linkTarget = file.getLink();
                   jsonFile.put("link", linkTarget);
-                  String linkPath = linkTarget.startsWith("/")
-                    ? linkTarget
-                    : joinPath(path, linkTarget);
-                  try {
-                    FTPFile[] targetFiles = ftp.listFiles(linkPath);
-                    if (targetFiles.length > 0) {
-                      FTPFile targetFile = targetFiles[0];
-                      jsonFile.put("isFile", targetFile.isFile());
-                      jsonFile.put("isDirectory", targetFile.isDirectory());
-                      jsonFile.put("url", linkPath);
-                    } else {
-                      jsonFile.put("isFile", false);
-                      jsonFile.put("isDirectory", false);
-                    }
-                  } catch (Exception e) {
-                    // Handle broken symlink
-                    jsonFile.put("isFile", false);
-                    jsonFile.put("isDirectory", false);
+                  // unknown until resolved, broken links stay that way
+                  jsonFile.put("isFile", false);
+                  jsonFile.put("isDirectory", false);
+                  jsonFile.put("linkResolved", false);
+                  // MLSD may not report the target
+                  if (resolveLinks && linkTarget != null) {
+                    links.add(jsonFile);
                   }
                 } else {
                   jsonFile.put("isLink", false);
@@ -280,10 +472,7 @@ public class Ftp extends CordovaPlugin {
                   jsonFile.put("link", null);
                 }
 
-                jsonFile.put(
-                  "lastModified",
-                  file.getTimestamp().getTimeInMillis()
-                );
+                jsonFile.put("lastModified", lastModified(file));
                 jsonFile.put(
                   "canWrite",
                   file.hasPermission(
@@ -300,6 +489,13 @@ public class Ftp extends CordovaPlugin {
                 );
                 jsonFiles.put(jsonFile);
               }
+
+              if (!links.isEmpty()) {
+                if (ftp == null) {
+                  ftp = pool.borrow();
+                }
+                resolveLinks(ftp, pool, path, links);
+              }
               callback.success(jsonFiles);
             } catch (ParserInitializationException e) {
               callback.error(e.getMessage());
@@ -309,6 +505,8 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -321,6 +519,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             String ftpId = args.optString(0);
             String path = args.optString(1);
             try {
@@ -333,15 +532,21 @@ public class Ftp extends CordovaPlugin {
                 path = "/";
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              FtpListingCache.Lookup cached = pool.listings.lookup(path);
+              if (cached != null) {
+                callback.success(cached.file != null ? 1 : 0);
+                return;
+              }
+
+              ftp = pool.borrow();
 
               // check if file or directory exists
-              FTPFile[] ftpFiles = ftp.listFiles(path);
-              if (ftpFiles.length > 0) {
+              if (stat(ftp, path) != null) {
                 callback.success(1);
               } else {
                 callback.success(0);
@@ -359,6 +564,8 @@ public class Ftp extends CordovaPlugin {
             } catch (Exception e) {
               Log.e("FTP", "FTPClient (" + ftpId + ") path: " + path, e);
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -371,17 +578,21 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
               ftp.sendNoOp();
               callback.success();
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -394,6 +605,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -408,13 +620,15 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               ftp.deleteFile(path);
+              pool.listings.invalidate(path);
               callback.success();
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
@@ -422,6 +636,8 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -434,6 +650,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -448,15 +665,20 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               Log.d("FTP", "Deleting directory " + path);
               // delete all files in the directory
-              emptyDirectory(path, ftp);
+              try {
+                emptyDirectory(path, ftp);
+              } finally {
+                pool.listings.invalidate(path);
+              }
 
               callback.success();
             } catch (FTPConnectionClosedException e) {
@@ -465,6 +687,8 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -477,6 +701,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String oldPath = args.optString(1);
@@ -497,27 +722,35 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
 
-              if (ftp == null) {
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               // get list of files in the parent directory
               String parentPath = getParentPath(oldPath);
-              FTPFile[] ftpFiles = ftp.listFiles(parentPath);
+              FTPFile[] ftpFiles = list(ftp, parentPath);
 
               Log.d("FTP", "Renaming " + oldPath + " to " + newPath);
               ftp.rename(oldPath, newPath);
-
-              // check if file is renamed successfully
-              FTPFile[] newFile = ftp.listFiles(newPath);
-              if (newFile.length > 0) {
+              pool.listings.invalidate(oldPath);
+              pool.listings.invalidate(newPath);
+
+              // check if file is renamed successfully, the fresh listing of
+              // the destination is kept for the browsing that follows
+              String newParentPath = getParentPath(newPath);
+              FTPFile[] newParentFiles = list(ftp, newParentPath);
+              pool.listings.put(newParentPath, newParentFiles);
+              if (containsName(newParentFiles, getBaseName(newPath))) {
                 callback.success(newPath);
               } else {
                 // get latest list of files in the parent directory
-                FTPFile[] latestFtpFiles = ftp.listFiles(parentPath);
+                FTPFile[] latestFtpFiles = newParentPath.equals(parentPath)
+                  ? newParentFiles
+                  : list(ftp, parentPath);
                 // some time src file is renamed and not moved to destination
                 // check if for changed file and rename it original name
                 FTPFile changedFile = null;
@@ -541,6 +774,8 @@ public class Ftp extends CordovaPlugin {
                     changedFile.getName()
                   );
                   ftp.rename(changedFilePath, oldPath);
+                  pool.listings.invalidate(changedFilePath);
+                  pool.listings.invalidate(oldPath);
                 }
                 callback.error("Failed to rename file");
               }
@@ -552,6 +787,8 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -564,6 +801,8 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
+            FtpTransfer transfer = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -586,16 +825,55 @@ public class Ftp extends CordovaPlugin {
 
               URI uri = new URI(localFilePath);
               File localFile = new File(uri);
-              FTPClient ftp = ftpProfiles.get(ftpId);
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
 
-              if (ftp == null) {
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              JSONObject options = args.optJSONObject(3);
+              boolean resume = options != null && options.optBoolean("resume");
+              transfer = startTransfer(options, callback);
+              if (transfer == null) {
+                return;
+              }
+              ftp = pool.borrow();
 
               ftp.setFileType(FTP.BINARY_FILE_TYPE);
+              prepareTransfer(ftp, transfer);
+
+              long remoteSize = remoteSize(ftp, path);
+              transfer.setTotal(remoteSize);
+
+              // continue a partial download, a local file larger than the
+              // remote one is from another version and is overwritten
+              long offset = 0;
+              if (
+                resume &&
+                remoteSize >= 0 &&
+                localFile.isFile() &&
+                localFile.length() <= remoteSize
+              ) {
+                offset = localFile.length();
+              }
+              transfer.setOffset(offset);
+              if (offset > 0 && offset == remoteSize) {
+                callback.success(transfer.toJSON("complete"));
+                return;
+              }
 
+              ftp.setRestartOffset(offset);
               InputStream inputStream = ftp.retrieveFileStream(path);
+              if (inputStream == null && offset > 0) {
+                Log.d(
+                  "FTP",
+                  "FTPClient (" + ftpId + ") REST " + offset + " refused"
+                );
+                offset = 0;
+                transfer.setOffset(offset);
+                ftp.setRestartOffset(offset);
+                inputStream = ftp.retrieveFileStream(path);
+              }
               if (inputStream == null) {
                 Log.d(
                   "FTP",
@@ -605,14 +883,16 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FileOutputStream outputStream = new FileOutputStream(localFile);
-              byte[] buffer = new byte[1024];
-              int bytesRead = -1;
-              while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+              FileOutputStream outputStream = new FileOutputStream(
+                localFile,
+                offset > 0
+              );
+              try {
+                transfer.copy(inputStream, outputStream, inputStream);
+              } finally {
+                outputStream.close();
+                inputStream.close();
               }
-              outputStream.close();
-              inputStream.close();
 
               if (!ftp.completePendingCommand()) {
                 ftp.logout();
@@ -621,7 +901,12 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              callback.success();
+              if (remoteSize >= 0 && localFile.length() != remoteSize) {
+                callback.error(sizeMismatch(remoteSize, localFile.length()));
+                return;
+              }
+
+              callback.success(transfer.toJSON("complete"));
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (URISyntaxException e) {
@@ -630,6 +915,9 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              finishTransfer(transfer);
+              release(ftp);
             }
           }
         }
@@ -642,6 +930,8 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
+            FtpTransfer transfer = null;
             try {
               String ftpId = args.optString(0);
               String localFilePath = args.optString(1);
@@ -665,30 +955,67 @@ public class Ftp extends CordovaPlugin {
               Log.d("FTPUpload", "uploadFile: " + localFilePath);
               URI uri = new URI(localFilePath);
               File localFile = new File(uri);
-              FTPClient ftp = ftpProfiles.get(ftpId);
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
 
-              if (ftp == null) {
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              JSONObject options = args.optJSONObject(3);
+              boolean resume = options != null && options.optBoolean("resume");
+              transfer = startTransfer(options, callback);
+              if (transfer == null) {
+                return;
+              }
+              long length = localFile.length();
+              transfer.setTotal(length);
+              ftp = pool.borrow();
 
               ftp.setFileType(FTP.BINARY_FILE_TYPE);
+              prepareTransfer(ftp, transfer);
+
+              // continue a partial upload, a remote file larger than the
+              // local one is from another version and is overwritten
+              long offset = 0;
+              if (resume) {
+                long remoteSize = remoteSize(ftp, remoteFilePath);
+                if (remoteSize > 0 && remoteSize <= length) {
+                  offset = remoteSize;
+                }
+              }
+              transfer.setOffset(offset);
+              if (offset > 0 && offset == length) {
+                callback.success(transfer.toJSON("complete"));
+                return;
+              }
 
               Log.d("FTPUpload", "Destination " + remoteFilePath);
-              OutputStream outputStream = ftp.storeFileStream(remoteFilePath);
+              pool.listings.invalidate(remoteFilePath);
+              OutputStream outputStream = offset > 0
+                ? ftp.appendFileStream(remoteFilePath)
+                : ftp.storeFileStream(remoteFilePath);
+              if (outputStream == null && offset > 0) {
+                Log.d("FTPUpload", "APPE refused, uploading from the start");
+                offset = 0;
+                transfer.setOffset(offset);
+                outputStream = ftp.storeFileStream(remoteFilePath);
+              }
               if (outputStream == null) {
                 callback.error("File not found.");
                 return;
               }
 
-              InputStream inputStream = new FileInputStream(localFile);
-              byte[] buffer = new byte[1024];
-              int bytesRead = -1;
-              while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+              FileInputStream inputStream = new FileInputStream(localFile);
+              try {
+                inputStream.getChannel().position(offset);
+                transfer.copy(inputStream, outputStream, outputStream);
+              } finally {
+                outputStream.close();
+                inputStream.close();
+                // listings fetched by other sessions meanwhile saw a partial
+                // file, and so did a cancelled upload
+                pool.listings.invalidate(remoteFilePath);
               }
-              outputStream.close();
-              inputStream.close();
 
               if (!ftp.completePendingCommand()) {
                 ftp.logout();
@@ -697,7 +1024,13 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              callback.success();
+              long remoteSize = remoteSize(ftp, remoteFilePath);
+              if (remoteSize >= 0 && remoteSize != length) {
+                callback.error(sizeMismatch(length, remoteSize));
+                return;
+              }
+
+              callback.success(transfer.toJSON("complete"));
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (URISyntaxException e) {
@@ -706,18 +1039,41 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              finishTransfer(transfer);
+              release(ftp);
             }
           }
         }
       );
   }
 
+  /**
+   * Cancels a running downloadFile or uploadFile by closing its data
+   * connection; the transfer then fails with "Transfer cancelled."
+   *
+   * @param args [transferId]
+   * @param callback
+   */
+  public void cancelTransfer(JSONArray args, CallbackContext callback) {
+    // not queued on the thread pool, so cancelling doesn't wait behind
+    // other actions
+    FtpTransfer transfer = transfers.get(args.optString(0));
+    if (transfer == null) {
+      callback.error("Transfer not found.");
+      return;
+    }
+    transfer.cancel();
+    callback.success();
+  }
+
   public void getKeepAlive(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
 
@@ -726,15 +1082,18 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               callback.success((int) ftp.getControlKeepAliveTimeout());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -747,6 +1106,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String command = args.optString(1);
@@ -761,19 +1121,24 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               ftp.sendCommand(command);
+              // raw commands may change anything on the server
+              pool.listings.clear();
               String reply = ftp.getReplyString();
               callback.success(reply);
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -786,6 +1151,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
 
@@ -794,17 +1160,20 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               boolean connected = ftp.isConnected();
               callback.success(connected ? 1 : 0);
             } catch (Exception e) {
               Log.e("FTP", "FTPClient", e);
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -819,14 +1188,11 @@ public class Ftp extends CordovaPlugin {
           public void run() {
             try {
               String ftpId = args.optString(0);
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp != null) {
-                ftp.disconnect();
-                ftpProfiles.remove(ftpId);
+              FtpConnectionPool pool = ftpProfiles.remove(ftpId);
+              if (pool != null) {
+                pool.close();
               }
               callback.success();
-            } catch (IOException e) {
-              callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
             }
@@ -841,6 +1207,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -855,18 +1222,22 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               ftp.makeDirectory(path);
+              pool.listings.invalidate(path);
               callback.success();
             } catch (IOException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -879,6 +1250,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -893,18 +1265,23 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
-              ftp.changeWorkingDirectory(path);
+              if (ftp.changeWorkingDirectory(path)) {
+                pool.updateWorkingDirectory(ftp);
+              }
               callback.success();
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -920,6 +1297,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
 
@@ -928,18 +1306,23 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
-              ftp.changeToParentDirectory();
+              if (ftp.changeToParentDirectory()) {
+                pool.updateWorkingDirectory(ftp);
+              }
               callback.success();
             } catch (FTPConnectionClosedException e) {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -952,6 +1335,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
 
@@ -960,11 +1344,12 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              ftp = pool.borrow();
 
               String workingDirectory = ftp.printWorkingDirectory();
               callback.success(workingDirectory);
@@ -972,6 +1357,8 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
@@ -984,6 +1371,7 @@ public class Ftp extends CordovaPlugin {
       .execute(
         new Runnable() {
           public void run() {
+            FTPClient ftp = null;
             try {
               String ftpId = args.optString(0);
               String path = args.optString(1);
@@ -998,19 +1386,29 @@ public class Ftp extends CordovaPlugin {
                 return;
               }
 
-              FTPClient ftp = ftpProfiles.get(ftpId);
-              if (ftp == null) {
+              FtpConnectionPool pool = ftpProfiles.get(ftpId);
+              if (pool == null) {
                 callback.error("FTP client not found.");
                 return;
               }
+              FTPFile file;
+              FtpListingCache.Lookup cached = pool.listings.lookup(path);
+              if (cached != null) {
+                file = cached.file;
+                if (file == null) {
+                  callback.error("File not found.");
+                  return;
+                }
+              } else {
+                ftp = pool.borrow();
 
-              FTPFile[] files = ftp.listFiles(path);
-              if (files == null || files.length == 0) {
-                callback.error("File not found.");
-                return;
+                file = stat(ftp, path);
+                if (file == null) {
+                  callback.error("File not found.");
+                  return;
+                }
               }
 
-              FTPFile file = files[0];
               JSONObject stat = new JSONObject();
               stat.put("isFile", file.isFile());
               stat.put("isValid", file.isValid());
@@ -1020,7 +1418,7 @@ public class Ftp extends CordovaPlugin {
               stat.put("linkCount", file.getHardLinkCount());
               stat.put("length", file.getSize());
               stat.put("name", getBaseName(file.getName()));
-              stat.put("lastModified", file.getTimestamp().getTimeInMillis());
+              stat.put("lastModified", lastModified(file));
               stat.put("link", file.getLink());
               stat.put("group", file.getGroup());
               stat.put("user", file.getUser());
@@ -1045,12 +1443,96 @@ public class Ftp extends CordovaPlugin {
               callback.error(e.getMessage());
             } catch (Exception e) {
               callback.error(e.getMessage());
+            } finally {
+              release(ftp);
             }
           }
         }
       );
   }
 
+  /**
+   * Returns a session checked out in an action to its pool
+   *
+   * @param ftp may be null if the action failed before checking out
+   */
+  private void release(FTPClient ftp) {
+    if (ftp != null) {
+      ((FtpConnectionPool.Session) ftp).pool.release(ftp);
+    }
+  }
+
+  /**
+   * Registers a transfer so it can be cancelled
+   *
+   * @param options
+   * @param callback
+   * @return null, with the error reported, if the id is already in use
+   */
+  private FtpTransfer startTransfer(
+    JSONObject options,
+    CallbackContext callback
+  ) {
+    FtpTransfer transfer = new FtpTransfer(options, callback);
+    if (transfers.putIfAbsent(transfer.id, transfer) != null) {
+      callback.error("Transfer " + transfer.id + " is already running.");
+      return null;
+    }
+    return transfer;
+  }
+
+  private void finishTransfer(FtpTransfer transfer) {
+    if (transfer != null) {
+      transfers.remove(transfer.id, transfer);
+    }
+  }
+
+  /**
+   * Sizes the stream buffers and the data socket buffers for a transfer
+   *
+   * @param ftp
+   * @param transfer
+   */
+  private static void prepareTransfer(FTPClient ftp, FtpTransfer transfer) {
+    ftp.setBufferSize(transfer.bufferSize);
+    ftp.setReceieveDataSocketBufferSize(transfer.bufferSize);
+    ftp.setSendDataSocketBufferSize(transfer.bufferSize);
+  }
+
+  /**
+   * Size of a remote file from SIZE, or from its listing entry if the server
+   * doesn't support SIZE
+   *
+   * @param ftp
+   * @param path
+   * @return -1 if the file doesn't exist or its size is unknown
+   * @throws IOException
+   */
+  private static long remoteSize(FTPClient ftp, String path)
+    throws IOException {
+    String size = ftp.getSize(path);
+    if (size != null) {
+      try {
+        return Long.parseLong(size.trim());
+      } catch (NumberFormatException ignored) {}
+    }
+    if (ftp.getReplyCode() == FTPReply.FILE_UNAVAILABLE) {
+      return -1;
+    }
+    FTPFile file = stat(ftp, path);
+    return file != null && file.isFile() ? file.getSize() : -1;
+  }
+
+  private static String sizeMismatch(long expected, long actual) {
+    return (
+      "File transfer incomplete: expected " +
+      expected +
+      " bytes, got " +
+      actual +
+      "."
+    );
+  }
+
   private String getFtpId(String host, int port, String username) {
     return username + "@" + host + ":" + port;
   }
@@ -1066,7 +1548,7 @@ public class Ftp extends CordovaPlugin {
 
   private void emptyDirectory(String directory, FTPClient client)
     throws FTPConnectionClosedException, IOException {
-    FTPFile[] files = client.listFiles(directory);
+    FTPFile[] files = list(client, directory);
     for (FTPFile file : files) {
       String filename = file.getName();
       if (filename.equals(".") || filename.equals("..")) {
@@ -0,0 +1,299 @@
+package com.foxdebug.ftp;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+/**
+ * Authenticated FTP sessions of one profile. FTPClient is not thread safe,
+ * so every action checks out a session of its own and returns it when done;
+ * a long transfer then only blocks its own session.
+ */
+class FtpConnectionPool {
+
+  static final int DEFAULT_SIZE = 3;
+  static final long HEALTH_CHECK_INTERVAL = 15000;
+  static final long BORROW_TIMEOUT = 30000;
+  static final long MIN_OPEN_BACKOFF = 1000;
+  static final long MAX_OPEN_BACKOFF = 30000;
+
+  /**
+   * Connects and logs in a new session
+   */
+  interface Connector {
+    void connect(FTPClient ftp) throws IOException;
+  }
+
+  /**
+   * Session that remembers its pool, its working directory and whether the
+   * server supports MLSD/MLST
+   */
+  static class Session extends FTPClient {
+
+    final FtpConnectionPool pool;
+    long lastUsed = System.currentTimeMillis();
+    String workingDirectory;
+    boolean machineListing = false;
+
+    Session(FtpConnectionPool pool) {
+      this.pool = pool;
+    }
+  }
+
+  final String ftpId;
+  final FtpListingCache listings;
+  private final Connector connector;
+  private int size;
+  private final LinkedBlockingDeque<Session> idle = new LinkedBlockingDeque<Session>();
+  private int created = 0;
+  private long openBackoff = 0;
+  private long openRetryAt = 0;
+  private volatile boolean closed = false;
+  private volatile String workingDirectory;
+
+  FtpConnectionPool(
+    String ftpId,
+    int size,
+    FtpListingCache listings,
+    Connector connector
+  ) {
+    this.ftpId = ftpId;
+    this.size = Math.max(1, size);
+    this.listings = listings;
+    this.connector = connector;
+  }
+
+  /**
+   * Checks out a session, opening a new one while the pool is below its
+   * size and waiting for one to be returned otherwise. If the server refuses
+   * another session while others are open, opening is retried with a growing
+   * backoff and the open sessions are shared meanwhile.
+   * Sessions idle for longer than the health check interval are probed with
+   * NOOP first.
+   *
+   * @return
+   * @throws IOException if no working session could be obtained
+   */
+  FTPClient borrow() throws IOException {
+    long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+    while (true) {
+      if (closed) {
+        throw new IOException("FTP client not found.");
+      }
+
+      Session session = idle.pollFirst();
+      if (session == null) {
+        try {
+          session = open();
+        } catch (IOException e) {
+          // e.g. 421 from a per-user connection limit: make do with the
+          // sessions that are already open until the backoff runs out
+          if (!backOff()) {
+            throw e;
+          }
+        }
+      }
+      if (session == null) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          throw new IOException("Timed out waiting for an FTP session");
+        }
+        try {
+          // wake up now and then, a dropped session frees a slot to open
+          session =
+            idle.pollFirst(Math.min(remaining, 1000), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for an FTP session");
+        }
+        if (session == null) {
+          continue;
+        }
+      }
+
+      if (healthy(session)) {
+        try {
+          syncWorkingDirectory(session);
+        } catch (IOException e) {
+          destroy(session);
+          throw e;
+        }
+        return session;
+      }
+      destroy(session);
+    }
+  }
+
+  /**
+   * Returns a session checked out with borrow()
+   *
+   * @param ftp
+   */
+  void release(FTPClient ftp) {
+    Session session = (Session) ftp;
+    session.lastUsed = System.currentTimeMillis();
+    // a preliminary reply means a transfer was abandoned halfway, the
+    // control connection is out of sync
+    if (
+      closed ||
+      oversized() ||
+      !session.isConnected() ||
+      FTPReply.isPositivePreliminary(session.getReplyCode())
+    ) {
+      destroy(session);
+      return;
+    }
+    // most recently used first, so the warm sessions are the ones reused
+    idle.offerFirst(session);
+  }
+
+  /**
+   * Changes the number of sessions, surplus sessions are disconnected when
+   * they are returned
+   *
+   * @param size
+   */
+  void resize(int size) {
+    synchronized (this) {
+      size = Math.max(1, size);
+      if (size == this.size) {
+        return;
+      }
+      this.size = size;
+      openBackoff = 0;
+      openRetryAt = 0;
+    }
+    Session session;
+    while (oversized() && (session = idle.pollLast()) != null) {
+      destroy(session);
+    }
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Working directory shared by all sessions, changed by changeDirectory
+   *
+   * @param ftp session the directory was changed on
+   * @throws IOException
+   */
+  void updateWorkingDirectory(FTPClient ftp) throws IOException {
+    Session session = (Session) ftp;
+    session.workingDirectory = ftp.printWorkingDirectory();
+    this.workingDirectory = session.workingDirectory;
+  }
+
+  /**
+   * Disconnects the idle sessions, sessions in use are disconnected when
+   * they are returned
+   */
+  void close() {
+    closed = true;
+    Session session;
+    while ((session = idle.pollFirst()) != null) {
+      destroy(session);
+    }
+  }
+
+  private Session open() throws IOException {
+    synchronized (this) {
+      if (created >= size) {
+        return null;
+      }
+      if (created > 0 && System.currentTimeMillis() < openRetryAt) {
+        return null;
+      }
+      created++;
+    }
+    Session session = new Session(this);
+    try {
+      connector.connect(session);
+      Log.d("FTP", "FTPClient (" + ftpId + ") session opened");
+      synchronized (this) {
+        openBackoff = 0;
+      }
+      return session;
+    } catch (IOException e) {
+      destroy(session);
+      throw e;
+    } catch (RuntimeException e) {
+      destroy(session);
+      throw e;
+    }
+  }
+
+  /**
+   * Holds off opening further sessions after a failed open, doubling the
+   * delay on every failure in a row
+   *
+   * @return false if no session is open, so waiting would not help
+   */
+  private synchronized boolean backOff() {
+    if (created <= 0) {
+      return false;
+    }
+    openBackoff =
+      openBackoff == 0
+        ? MIN_OPEN_BACKOFF
+        : Math.min(openBackoff * 2, MAX_OPEN_BACKOFF);
+    openRetryAt = System.currentTimeMillis() + openBackoff;
+    Log.d(
+      "FTP",
+      "FTPClient (" +
+      ftpId +
+      ") sharing " +
+      created +
+      " sessions, retrying in " +
+      openBackoff +
+      "ms"
+    );
+    return true;
+  }
+
+  private synchronized boolean oversized() {
+    return created > size;
+  }
+
+  private boolean healthy(Session session) {
+    if (!session.isConnected()) {
+      return false;
+    }
+    if (
+      System.currentTimeMillis() - session.lastUsed < HEALTH_CHECK_INTERVAL
+    ) {
+      return true;
+    }
+    try {
+      return session.sendNoOp();
+    } catch (IOException e) {
+      Log.d("FTP", "FTPClient (" + ftpId + ") session went stale");
+      return false;
+    }
+  }
+
+  private void syncWorkingDirectory(Session session) throws IOException {
+    String directory = this.workingDirectory;
+    if (directory == null || directory.equals(session.workingDirectory)) {
+      return;
+    }
+    if (session.changeWorkingDirectory(directory)) {
+      session.workingDirectory = directory;
+    }
+  }
+
+  private void destroy(Session session) {
+    synchronized (this) {
+      created--;
+    }
+    try {
+      if (session.isConnected()) {
+        session.disconnect();
+      }
+    } catch (IOException ignored) {}
+  }
+}
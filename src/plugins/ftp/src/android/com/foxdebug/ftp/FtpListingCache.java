@@ -0,0 +1,189 @@
+package com.foxdebug.ftp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.net.ftp.FTPFile;
+
+/**
+ * Directory listings of one profile, keyed by normalized absolute path and
+ * kept for a short TTL. Actions that change the server invalidate the
+ * affected entries, so the cache only hides changes made by other clients,
+ * and only for the TTL.
+ */
+class FtpListingCache {
+
+  static final long DEFAULT_TTL = 10000;
+  static final int CAPACITY = 128;
+
+  /**
+   * Result of looking up a single path in its parent's listing
+   */
+  static class Lookup {
+
+    /**
+     * The entry, or null if the cached parent listing doesn't contain it
+     */
+    final FTPFile file;
+
+    Lookup(FTPFile file) {
+      this.file = file;
+    }
+  }
+
+  private static class Entry {
+
+    final FTPFile[] files;
+    final long loadedAt;
+
+    Entry(FTPFile[] files, long loadedAt) {
+      this.files = files;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  private volatile long ttl;
+  private final LinkedHashMap<String, Entry> entries;
+
+  FtpListingCache(long ttl) {
+    this.ttl = ttl;
+    this.entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > CAPACITY;
+        }
+      };
+  }
+
+  long ttl() {
+    return ttl;
+  }
+
+  /**
+   * Changes the TTL, entries already cached expire by the new one
+   *
+   * @param ttl
+   */
+  void setTtl(long ttl) {
+    this.ttl = ttl;
+  }
+
+  /**
+   * @param path directory path
+   * @return the cached listing, or null
+   */
+  FTPFile[] get(String path) {
+    String key = normalize(path);
+    if (key == null || ttl <= 0) {
+      return null;
+    }
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (System.currentTimeMillis() - entry.loadedAt >= ttl) {
+        entries.remove(key);
+        return null;
+      }
+      return entry.files;
+    }
+  }
+
+  /**
+   * @param path directory path
+   * @param files listing of the directory
+   */
+  void put(String path, FTPFile[] files) {
+    String key = normalize(path);
+    if (key == null || ttl <= 0 || files == null) {
+      return;
+    }
+    synchronized (entries) {
+      entries.put(key, new Entry(files, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * Finds a file or directory in the cached listing of its parent
+   *
+   * @param path
+   * @return null if the parent listing is not cached
+   */
+  Lookup lookup(String path) {
+    String key = normalize(path);
+    if (key == null || "/".equals(key)) {
+      return null;
+    }
+    int slash = key.lastIndexOf('/');
+    FTPFile[] siblings = get(slash == 0 ? "/" : key.substring(0, slash));
+    if (siblings == null) {
+      return null;
+    }
+    String name = key.substring(slash + 1);
+    for (FTPFile file : siblings) {
+      if (file != null && name.equals(file.getName())) {
+        return new Lookup(file);
+      }
+    }
+    return new Lookup(null);
+  }
+
+  /**
+   * Drops the listing of the path's parent, and of the path and everything
+   * below it in case it is a directory
+   *
+   * @param path file or directory that was created, changed or removed
+   */
+  void invalidate(String path) {
+    String key = normalize(path);
+    if (key == null) {
+      clear();
+      return;
+    }
+    int slash = key.lastIndexOf('/');
+    String parent = slash <= 0 ? "/" : key.substring(0, slash);
+    String prefix = "/".equals(key) ? "/" : key + "/";
+    synchronized (entries) {
+      entries.remove(parent);
+      Iterator<String> keys = entries.keySet().iterator();
+      while (keys.hasNext()) {
+        String cached = keys.next();
+        if (cached.equals(key) || cached.startsWith(prefix)) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Collapses duplicate slashes, "." segments and the trailing slash.
+   * Relative paths depend on the working directory and are not cached.
+   *
+   * @param path
+   * @return the normalized path, or null if it can't be cached
+   */
+  static String normalize(String path) {
+    if (path == null || !path.startsWith("/")) {
+      return null;
+    }
+    StringBuilder normalized = new StringBuilder();
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty() || ".".equals(segment)) {
+        continue;
+      }
+      if ("..".equals(segment)) {
+        return null;
+      }
+      normalized.append('/').append(segment);
+    }
+    return normalized.length() == 0 ? "/" : normalized.toString();
+  }
+}
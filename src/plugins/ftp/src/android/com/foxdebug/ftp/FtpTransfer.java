@@ -0,0 +1,169 @@
+package com.foxdebug.ftp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A running download or upload. Copies with a large buffer, reports
+ * throttled progress through the kept callback if the caller asked for it,
+ * and can be cancelled from another thread by closing its data stream.
+ * <p>
+ * Options: { "transferId": "...", "bufferSize": 262144, "progress": false,
+ * "progressInterval": 250, "resume": false }, resume is handled by the
+ * actions themselves
+ */
+class FtpTransfer {
+
+  static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+  static final long DEFAULT_PROGRESS_INTERVAL = 250;
+
+  /**
+   * Thrown by copy() when the transfer was cancelled
+   */
+  static class CancelledException extends IOException {
+
+    CancelledException() {
+      super("Transfer cancelled.");
+    }
+  }
+
+  final String id;
+  final int bufferSize;
+  private final long progressInterval;
+  private final CallbackContext progressCallback;
+  private final long startedAt = System.currentTimeMillis();
+  private volatile boolean cancelled = false;
+  private volatile Closeable dataStream;
+  private long total = -1;
+  private long offset = 0;
+  private long bytes = 0;
+
+  FtpTransfer(JSONObject options, CallbackContext callback) {
+    if (options == null) {
+      options = new JSONObject();
+    }
+    String transferId = options.optString("transferId", "");
+    this.id = transferId.isEmpty() ? UUID.randomUUID().toString() : transferId;
+    this.bufferSize =
+      Math.max(
+        8 * 1024,
+        options.optInt("bufferSize", DEFAULT_BUFFER_SIZE)
+      );
+    this.progressInterval =
+      options.optLong("progressInterval", DEFAULT_PROGRESS_INTERVAL);
+    this.progressCallback = options.optBoolean("progress", false)
+      ? callback
+      : null;
+  }
+
+  /**
+   * @param total size of the whole file, -1 if unknown
+   */
+  void setTotal(long total) {
+    this.total = total;
+  }
+
+  /**
+   * @param offset bytes already transferred before this run, e.g. when
+   * resuming
+   */
+  void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  /**
+   * Copies the data stream, closing neither stream
+   *
+   * @param in
+   * @param out
+   * @param data the stream of the FTP data connection, closed on cancel
+   * @return bytes copied
+   * @throws IOException CancelledException if cancelled
+   */
+  long copy(InputStream in, OutputStream out, Closeable data)
+    throws IOException {
+    this.dataStream = data;
+    if (cancelled) {
+      throw new CancelledException();
+    }
+
+    byte[] buffer = new byte[bufferSize];
+    long lastProgress = 0;
+    int read;
+    try {
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        bytes += read;
+
+        long now = System.currentTimeMillis();
+        if (progressCallback != null && now - lastProgress >= progressInterval) {
+          lastProgress = now;
+          send("progress");
+        }
+      }
+    } catch (IOException e) {
+      if (cancelled) {
+        throw new CancelledException();
+      }
+      throw e;
+    }
+    if (cancelled) {
+      throw new CancelledException();
+    }
+    return bytes;
+  }
+
+  /**
+   * Aborts the transfer by closing its data connection. The session is left
+   * with a pending reply and is dropped by the pool when returned.
+   */
+  void cancel() {
+    cancelled = true;
+    Closeable data = dataStream;
+    if (data != null) {
+      try {
+        data.close();
+      } catch (IOException ignored) {}
+    }
+  }
+
+  /**
+   * { "type", "transferId", "offset", "bytes", "total", "elapsed",
+   * "bytesPerSecond" }, bytes include the resumed offset, the rate only
+   * counts this run
+   *
+   * @param type "progress" or "complete"
+   * @return
+   * @throws JSONException
+   */
+  JSONObject toJSON(String type) throws JSONException {
+    long elapsed = Math.max(1, System.currentTimeMillis() - startedAt);
+    JSONObject json = new JSONObject();
+    json.put("type", type);
+    json.put("transferId", id);
+    json.put("offset", offset);
+    json.put("bytes", offset + bytes);
+    json.put("total", total);
+    json.put("elapsed", elapsed);
+    json.put("bytesPerSecond", bytes * 1000 / elapsed);
+    return json;
+  }
+
+  private void send(String type) {
+    try {
+      PluginResult result = new PluginResult(
+        PluginResult.Status.OK,
+        toJSON(type)
+      );
+      result.setKeepCallback(true);
+      progressCallback.sendPluginResult(result);
+    } catch (JSONException ignored) {}
+  }
+}
@@ -1,3 +1,28 @@
+/**
+ * Progress events share the success callback with the final result, they are
+ * only requested when onProgress is given and routed to it here
+ */
+function transferOptions(options, onSuccess) {
+  options = options || {};
+  var onProgress = options.onProgress;
+  return {
+    args: {
+      transferId: options.transferId,
+      bufferSize: options.bufferSize,
+      progress: typeof onProgress === 'function',
+      progressInterval: options.progressInterval,
+      resume: !!options.resume
+    },
+    onResult: function (res) {
+      if (res && res.type === 'progress') {
+        if (onProgress) onProgress(res);
+        return;
+      }
+      if (onSuccess) onSuccess(res);
+    }
+  };
+}
+
 module.exports = {
   connect: function (host, port, username, password, options, onSuccess, onFail) {
     if (typeof port != 'number') {
@@ -34,11 +59,12 @@ module.exports = {
       password,
       connectionMode,
       securityType,
-      encoding
+      encoding,
+      options || {}
     ]);
   },
-  listDirectory: function (id, path, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Ftp', 'listDirectory', [id, path]);
+  listDirectory: function (id, path, onSuccess, onFail, options) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'listDirectory', [id, path, options || {}]);
   },
   execCommand: function (id, command, onSuccess, onFail, args) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'execCommand', [id, command, args]);
@@ -49,11 +75,16 @@ module.exports = {
   disconnect: function (id, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'disconnect', [id]);
   },
-  downloadFile: function (id, remotePath, localPath, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Ftp', 'downloadFile', [id, remotePath, localPath]);
+  downloadFile: function (id, remotePath, localPath, onSuccess, onFail, options) {
+    options = transferOptions(options, onSuccess);
+    cordova.exec(options.onResult, onFail, 'Ftp', 'downloadFile', [id, remotePath, localPath, options.args]);
+  },
+  uploadFile: function (id, localPath, remotePath, onSuccess, onFail, options) {
+    options = transferOptions(options, onSuccess);
+    cordova.exec(options.onResult, onFail, 'Ftp', 'uploadFile', [id, localPath, remotePath, options.args]);
   },
-  uploadFile: function (id, localPath, remotePath, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'Ftp', 'uploadFile', [id, localPath, remotePath]);
+  cancelTransfer: function (transferId, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Ftp', 'cancelTransfer', [transferId]);
   },
   deleteFile: function (id, path, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Ftp', 'deleteFile', [id, path]);
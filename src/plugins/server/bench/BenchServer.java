@@ -0,0 +1,256 @@
+import android.content.Context;
+import android.net.Uri;
+import com.foxdebug.server.NanoHTTPDWebserver;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Runs NanoHTTPDWebserver in this JVM and benchmarks it with
+ * ServerBenchmark, no device needed. The Android and Cordova classes the
+ * server uses come from shims/; the JS handler is a stub that answers every
+ * request as soon as it arrives, on one thread like the WebView would.
+ * <p>
+ * Usage: java BenchServer [--port 8158] [--root dir] [--options json]
+ * [--serve] [ServerBenchmark options]...
+ * <p>
+ * Routes are those of stub.js: /static/* from the root directory, a
+ * generated one with index.html and large.bin if none is given, and /echo
+ * answered by the stub handler. --options takes extra Server.start options,
+ * e.g. {"engine":"nio"}. --serve keeps the server running instead of
+ * benchmarking it, to drive it with another client.
+ */
+public class BenchServer {
+
+  static final int INDEX_SIZE = 16 * 1024;
+  static final int LARGE_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * Stand-in for the JS side of setOnRequestHandler, answers like stub.js
+   */
+  static class StubHandler extends CallbackContext {
+
+    private final ExecutorService js = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "js");
+          thread.setDaemon(true);
+          return thread;
+        }
+      }
+    );
+    private final String body;
+    private NanoHTTPDWebserver server;
+
+    StubHandler() throws JSONException {
+      super("onRequest");
+      this.body = new JSONObject().put("ok", true).toString();
+    }
+
+    void attach(NanoHTTPDWebserver server) {
+      this.server = server;
+      server.onRequestCallbackContext = this;
+    }
+
+    @Override
+    public void sendPluginResult(final PluginResult result) {
+      js.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              answer(result);
+            } catch (JSONException e) {
+              e.printStackTrace();
+            }
+          }
+        }
+      );
+    }
+
+    private void answer(PluginResult result) throws JSONException {
+      // a binary request body arrives as [request, ArrayBuffer]
+      if (result.getMessageType() == PluginResult.MESSAGE_TYPE_MULTIPART) {
+        result = result.getMultipartMessage(0);
+      }
+      String message = result.getMessage();
+      if (message.startsWith("[")) {
+        // batchRequests
+        JSONArray batch = new JSONArray(message);
+        for (int i = 0; i < batch.length(); i++) {
+          respond(batch.getJSONObject(i));
+        }
+      } else {
+        respond(new JSONObject(message));
+      }
+    }
+
+    private void respond(JSONObject request) throws JSONException {
+      JSONObject response = new JSONObject();
+      response.put("status", 200);
+      response.put("body", body);
+      response.put(
+        "headers",
+        new JSONObject().put("Content-Type", "application/json")
+      );
+      server.completeRequest(request.getString("requestId"), response);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = 8158;
+    File root = null;
+    JSONObject options = new JSONObject();
+    boolean serve = false;
+    List<String> benchmarkArgs = new ArrayList<String>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("--serve".equals(arg)) {
+        serve = true;
+        continue;
+      }
+      if (i + 1 >= args.length) {
+        usage("Missing value for " + arg);
+      }
+      String value = args[++i];
+      if ("--port".equals(arg)) {
+        port = Integer.parseInt(value);
+      } else if ("--root".equals(arg)) {
+        root = new File(value).getAbsoluteFile();
+      } else if ("--options".equals(arg)) {
+        options = new JSONObject(value);
+      } else if ("--url".equals(arg)) {
+        usage("--url is set to the in-process server");
+      } else {
+        benchmarkArgs.add(arg);
+        benchmarkArgs.add(value);
+      }
+    }
+
+    if (root == null) {
+      root = createRoot();
+    } else if (!root.isDirectory()) {
+      usage("Not a directory: " + root);
+    }
+    options.put(
+      "routes",
+      new JSONArray()
+        .put(
+          new JSONObject()
+            .put("prefix", "/static/")
+            .put("root", Uri.fromFile(root).toString())
+        )
+    );
+
+    File cacheDir = createTempDirectory("bench-cache");
+    NanoHTTPDWebserver server = new NanoHTTPDWebserver(
+      port,
+      new Context(cacheDir)
+    );
+    server.configure(options);
+    new StubHandler().attach(server);
+    server.start();
+    System.out.println(
+      "Serving " + root + " on port " + port + " with " + options.toString()
+    );
+
+    if (serve) {
+      Thread.currentThread().join();
+    }
+
+    try {
+      benchmarkArgs.add("--url");
+      benchmarkArgs.add("http://127.0.0.1:" + port);
+      ServerBenchmark.main(benchmarkArgs.toArray(new String[0]));
+    } finally {
+      server.stop();
+    }
+    System.exit(0);
+  }
+
+  /**
+   * Generates the files the default scenarios ask for
+   */
+  private static File createRoot() throws IOException {
+    File root = createTempDirectory("bench-root");
+    StringBuilder html = new StringBuilder(
+      "<!doctype html>\n<html><head><title>bench</title></head><body>\n"
+    );
+    while (html.length() < INDEX_SIZE) {
+      html.append("<p>The quick brown fox jumps over the lazy dog.</p>\n");
+    }
+    html.append("</body></html>\n");
+    write(
+      new File(root, "index.html"),
+      html.toString().getBytes(StandardCharsets.UTF_8)
+    );
+
+    // random, so neither the disk cache nor gzip flatters the numbers
+    byte[] large = new byte[LARGE_SIZE];
+    new Random(1).nextBytes(large);
+    write(new File(root, "large.bin"), large);
+    return root;
+  }
+
+  private static File createTempDirectory(String prefix) throws IOException {
+    final File directory = File.createTempFile(prefix, "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    Runtime
+      .getRuntime()
+      .addShutdownHook(
+        new Thread() {
+          @Override
+          public void run() {
+            delete(directory);
+          }
+        }
+      );
+    return directory;
+  }
+
+  private static void write(File file, byte[] data) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println(
+      "Usage: java BenchServer [--port 8158] [--root dir] [--options json]" +
+      " [--serve] [--concurrency 16] [--duration 10] [--warmup 2]" +
+      " [--scenario name:path[:range]]..."
+    );
+    System.exit(2);
+  }
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for the preview server. Drives a running server with a
+ * fixed number of keep-alive clients per scenario and reports latency
+ * percentiles and throughput, so changes to serve() and serveFile() can be
+ * compared run against run.
+ * <p>
+ * Usage: java ServerBenchmark.java [--url http://127.0.0.1:8158]
+ * [--concurrency 16] [--duration 10] [--warmup 2]
+ * [--scenario name:path[:range]]...
+ * <p>
+ * Scenarios default to the routes served by stub.js and BenchServer.
+ */
+public class ServerBenchmark {
+
+  static class Scenario {
+
+    final String name;
+    final String path;
+    final String range;
+
+    Scenario(String name, String path, String range) {
+      this.name = name;
+      this.path = path;
+      this.range = range;
+    }
+
+    static Scenario parse(String spec) {
+      String[] parts = spec.split(":", 3);
+      if (parts.length < 2) {
+        throw new IllegalArgumentException("Invalid scenario: " + spec);
+      }
+      return new Scenario(parts[0], parts[1], parts.length > 2 ? parts[2] : null);
+    }
+  }
+
+  /**
+   * Latencies of one client, merged once the run is over
+   */
+  static class Samples {
+
+    private long[] values = new long[1024];
+    private int size = 0;
+
+    void add(long nanos) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = nanos;
+    }
+
+    void addAll(Samples other) {
+      for (int i = 0; i < other.size; i++) {
+        add(other.values[i]);
+      }
+    }
+
+    double percentile(double p) {
+      if (size == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(size * p) - 1;
+      return sorted[Math.max(0, Math.min(size - 1, rank))] / 1e6;
+    }
+  }
+
+  static class Result {
+
+    final Samples samples = new Samples();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+  }
+
+  public static void main(String[] args) throws Exception {
+    String baseUrl = "http://127.0.0.1:8158";
+    int concurrency = 16;
+    int duration = 10;
+    int warmup = 2;
+    List<Scenario> scenarios = new ArrayList<Scenario>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (i + 1 >= args.length) {
+        usage("Missing value for " + arg);
+      }
+      String value = args[++i];
+      if ("--url".equals(arg)) {
+        baseUrl = value.endsWith("/")
+          ? value.substring(0, value.length() - 1)
+          : value;
+      } else if ("--concurrency".equals(arg)) {
+        concurrency = Integer.parseInt(value);
+      } else if ("--duration".equals(arg)) {
+        duration = Integer.parseInt(value);
+      } else if ("--warmup".equals(arg)) {
+        warmup = Integer.parseInt(value);
+      } else if ("--scenario".equals(arg)) {
+        scenarios.add(Scenario.parse(value));
+      } else {
+        usage("Unknown option " + arg);
+      }
+    }
+
+    if (scenarios.isEmpty()) {
+      scenarios.add(new Scenario("static", "/static/index.html", null));
+      scenarios.add(new Scenario("range", "/static/large.bin", "0-65535"));
+      scenarios.add(new Scenario("handler", "/echo", null));
+    }
+
+    System.out.println(
+      String.format(
+        Locale.US,
+        "%s, %d clients, %ds per scenario after %ds warmup",
+        baseUrl,
+        concurrency,
+        duration,
+        warmup
+      )
+    );
+    System.out.println(
+      String.format(
+        Locale.US,
+        "%-12s %10s %10s %10s %10s %10s %8s %12s",
+        "scenario",
+        "requests",
+        "req/s",
+        "p50 ms",
+        "p99 ms",
+        "max ms",
+        "errors",
+        "MB/s"
+      )
+    );
+
+    for (Scenario scenario : scenarios) {
+      if (warmup > 0) {
+        run(baseUrl, scenario, concurrency, warmup * 1000L);
+      }
+      long started = System.nanoTime();
+      Result result = run(baseUrl, scenario, concurrency, duration * 1000L);
+      double seconds = (System.nanoTime() - started) / 1e9;
+      Samples samples = result.samples;
+      System.out.println(
+        String.format(
+          Locale.US,
+          "%-12s %10d %10.1f %10.2f %10.2f %10.2f %8d %12.2f",
+          scenario.name,
+          samples.size,
+          samples.size / seconds,
+          samples.percentile(0.5),
+          samples.percentile(0.99),
+          samples.percentile(1),
+          result.errors.get(),
+          result.bytes.get() / seconds / (1024 * 1024)
+        )
+      );
+    }
+  }
+
+  private static Result run(
+    final String baseUrl,
+    final Scenario scenario,
+    int concurrency,
+    long durationMs
+  ) throws InterruptedException {
+    final Result result = new Result();
+    final long deadline = System.nanoTime() + durationMs * 1000000L;
+    final CountDownLatch done = new CountDownLatch(concurrency);
+    final Samples[] perClient = new Samples[concurrency];
+
+    for (int i = 0; i < concurrency; i++) {
+      final Samples samples = new Samples();
+      perClient[i] = samples;
+      Thread client = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+              while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                try {
+                  long read = request(baseUrl, scenario, buffer);
+                  samples.add(System.nanoTime() - start);
+                  result.bytes.addAndGet(read);
+                } catch (IOException e) {
+                  result.errors.incrementAndGet();
+                }
+              }
+            } finally {
+              done.countDown();
+            }
+          }
+        },
+        "bench-" + i
+      );
+      client.setDaemon(true);
+      client.start();
+    }
+
+    done.await();
+    for (Samples samples : perClient) {
+      result.samples.addAll(samples);
+    }
+    return result;
+  }
+
+  /**
+   * Sends one request and drains the body so the connection is reused
+   *
+   * @return bytes read
+   */
+  private static long request(String baseUrl, Scenario scenario, byte[] buffer)
+    throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(
+      baseUrl + scenario.path
+    ).openConnection();
+    connection.setConnectTimeout(5000);
+    connection.setReadTimeout(30000);
+    if (scenario.range != null) {
+      connection.setRequestProperty("Range", "bytes=" + scenario.range);
+    }
+
+    int status = connection.getResponseCode();
+    InputStream in = status >= 400
+      ? connection.getErrorStream()
+      : connection.getInputStream();
+    long read = 0;
+    if (in != null) {
+      try {
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+          read += n;
+        }
+      } finally {
+        in.close();
+      }
+    }
+    if (status >= 400) {
+      throw new IOException("HTTP " + status);
+    }
+    return read;
+  }
+
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println(
+      "Usage: java ServerBenchmark.java [--url http://127.0.0.1:8158]" +
+      " [--concurrency 16] [--duration 10] [--warmup 2]" +
+      " [--scenario name:path[:range]]..."
+    );
+    System.exit(2);
+  }
+}
@@ -0,0 +1,28 @@
+#!/bin/sh
+# Builds the server with the JVM shims and runs BenchServer, arguments are
+# passed on. Needs a JDK 8+ and, on the first run, network access to fetch
+# the two libraries the server links against into lib/.
+set -e
+
+cd "$(dirname "$0")"
+MAVEN=https://repo1.maven.org/maven2
+NANOHTTPD=lib/nanohttpd-2.3.1.jar
+# Android's org.json, JSONException is checked there unlike in json.org's
+JSON=lib/android-json-0.0.20131108.vaadin1.jar
+
+mkdir -p lib
+[ -f "$NANOHTTPD" ] ||
+  curl -fsSLo "$NANOHTTPD" "$MAVEN/org/nanohttpd/nanohttpd/2.3.1/nanohttpd-2.3.1.jar"
+[ -f "$JSON" ] ||
+  curl -fsSLo "$JSON" "$MAVEN/com/vaadin/external/google/android-json/0.0.20131108.vaadin1/android-json-0.0.20131108.vaadin1.jar"
+
+CLASSPATH="$NANOHTTPD:$JSON"
+rm -rf build
+mkdir build
+# Server.java is the Cordova plugin itself, BenchServer stands in for it
+javac -nowarn -d build -cp "$CLASSPATH" \
+  $(find shims -name '*.java') \
+  $(ls ../src/android/com/foxdebug/server/*.java | grep -v '/Server\.java$') \
+  BenchServer.java ServerBenchmark.java
+
+exec java -cp "build:$CLASSPATH" BenchServer "$@"
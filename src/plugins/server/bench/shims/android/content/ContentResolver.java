@@ -0,0 +1,28 @@
+package android.content;
+
+import android.database.Cursor;
+import android.net.Uri;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * JVM stand-in for the benchmark. There are no document providers off the
+ * device, so content:// queries find nothing; serve file:// roots instead.
+ */
+public class ContentResolver {
+
+  public final Cursor query(
+    Uri uri,
+    String[] projection,
+    String selection,
+    String[] selectionArgs,
+    String sortOrder
+  ) {
+    return null;
+  }
+
+  public final InputStream openInputStream(Uri uri)
+    throws FileNotFoundException {
+    throw new FileNotFoundException("No content provider for " + uri);
+  }
+}
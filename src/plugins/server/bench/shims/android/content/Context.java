@@ -0,0 +1,24 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for the benchmark, only what the server asks of its context
+ */
+public class Context {
+
+  private final File cacheDir;
+  private final ContentResolver contentResolver = new ContentResolver();
+
+  public Context(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  public File getCacheDir() {
+    return cacheDir;
+  }
+
+  public ContentResolver getContentResolver() {
+    return contentResolver;
+  }
+}
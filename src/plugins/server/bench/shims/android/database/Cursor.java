@@ -0,0 +1,21 @@
+package android.database;
+
+import java.io.Closeable;
+
+/**
+ * JVM stand-in for the benchmark
+ */
+public interface Cursor extends Closeable {
+  boolean moveToFirst();
+
+  boolean moveToNext();
+
+  boolean isNull(int columnIndex);
+
+  String getString(int columnIndex);
+
+  long getLong(int columnIndex);
+
+  @Override
+  void close();
+}
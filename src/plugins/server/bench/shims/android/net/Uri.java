@@ -0,0 +1,155 @@
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JVM stand-in for the benchmark, parses hierarchical URIs the way Android
+ * does for the parts the server reads
+ */
+public final class Uri {
+
+  private static final String UNRESERVED = "_-!.~'()*";
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private final String uriString;
+
+  private Uri(String uriString) {
+    this.uriString = uriString;
+  }
+
+  public static Uri parse(String uriString) {
+    if (uriString == null) {
+      throw new NullPointerException("uriString");
+    }
+    return new Uri(uriString);
+  }
+
+  public static Uri fromFile(File file) {
+    return new Uri("file://" + encode(file.getAbsolutePath(), "/"));
+  }
+
+  public static String encode(String s) {
+    return encode(s, null);
+  }
+
+  public static String encode(String s, String allow) {
+    if (s == null) {
+      return null;
+    }
+    StringBuilder encoded = new StringBuilder(s.length());
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    for (byte b : bytes) {
+      char c = (char) (b & 0xff);
+      if (
+        (c >= 'a' && c <= 'z') ||
+        (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9') ||
+        UNRESERVED.indexOf(c) != -1 ||
+        (allow != null && c < 0x80 && allow.indexOf(c) != -1)
+      ) {
+        encoded.append(c);
+      } else {
+        encoded.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+    }
+    return encoded.toString();
+  }
+
+  public static String decode(String s) {
+    if (s == null) {
+      return null;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '%' && i + 2 < s.length()) {
+        int hi = Character.digit(s.charAt(i + 1), 16);
+        int lo = Character.digit(s.charAt(i + 2), 16);
+        if (hi != -1 && lo != -1) {
+          out.write((hi << 4) | lo);
+          i += 2;
+          continue;
+        }
+      }
+      byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+      out.write(bytes, 0, bytes.length);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  public String getScheme() {
+    int colon = uriString.indexOf(':');
+    if (colon <= 0) {
+      return null;
+    }
+    for (int i = 0; i < colon; i++) {
+      char c = uriString.charAt(i);
+      if (c == '/' || c == '?' || c == '#') {
+        return null;
+      }
+    }
+    return uriString.substring(0, colon);
+  }
+
+  public String getAuthority() {
+    String rest = afterScheme();
+    if (!rest.startsWith("//")) {
+      return null;
+    }
+    int end = indexOfAny(rest, "/?#", 2);
+    return decode(rest.substring(2, end));
+  }
+
+  public String getPath() {
+    String rest = afterScheme();
+    int start = 0;
+    if (rest.startsWith("//")) {
+      start = indexOfAny(rest, "/?#", 2);
+    }
+    return decode(rest.substring(start, indexOfAny(rest, "?#", start)));
+  }
+
+  public String getLastPathSegment() {
+    String path = getPath();
+    if (path == null || path.isEmpty()) {
+      return null;
+    }
+    if (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Uri && uriString.equals(((Uri) o).uriString);
+  }
+
+  @Override
+  public int hashCode() {
+    return uriString.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return uriString;
+  }
+
+  private String afterScheme() {
+    String scheme = getScheme();
+    return scheme == null
+      ? uriString
+      : uriString.substring(scheme.length() + 1);
+  }
+
+  private static int indexOfAny(String s, String chars, int from) {
+    for (int i = from; i < s.length(); i++) {
+      if (chars.indexOf(s.charAt(i)) != -1) {
+        return i;
+      }
+    }
+    return s.length();
+  }
+}
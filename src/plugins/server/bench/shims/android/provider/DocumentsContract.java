@@ -0,0 +1,103 @@
+package android.provider;
+
+import android.net.Uri;
+
+/**
+ * JVM stand-in for the benchmark, builds and takes apart document URIs the
+ * same way Android does
+ */
+public final class DocumentsContract {
+
+  private static final String PATH_DOCUMENT = "document";
+  private static final String PATH_CHILDREN = "children";
+  private static final String PATH_TREE = "tree";
+
+  public static final class Document {
+
+    public static final String COLUMN_DOCUMENT_ID = "document_id";
+    public static final String COLUMN_MIME_TYPE = "mime_type";
+    public static final String COLUMN_DISPLAY_NAME = "_display_name";
+    public static final String COLUMN_LAST_MODIFIED = "last_modified";
+    public static final String COLUMN_SIZE = "_size";
+    public static final String MIME_TYPE_DIR = "vnd.android.document/directory";
+
+    private Document() {}
+  }
+
+  private DocumentsContract() {}
+
+  public static String getDocumentId(Uri documentUri) {
+    String[] segments = segments(documentUri);
+    if (segments.length >= 2 && PATH_DOCUMENT.equals(segments[0])) {
+      return segments[1];
+    }
+    if (
+      segments.length >= 4 &&
+      PATH_TREE.equals(segments[0]) &&
+      PATH_DOCUMENT.equals(segments[2])
+    ) {
+      return segments[3];
+    }
+    throw new IllegalArgumentException("Invalid URI: " + documentUri);
+  }
+
+  public static String getTreeDocumentId(Uri documentUri) {
+    String[] segments = segments(documentUri);
+    if (segments.length >= 2 && PATH_TREE.equals(segments[0])) {
+      return segments[1];
+    }
+    throw new IllegalArgumentException("Invalid URI: " + documentUri);
+  }
+
+  public static Uri buildDocumentUriUsingTree(Uri treeUri, String documentId) {
+    return Uri.parse(
+      "content://" +
+      Uri.encode(treeUri.getAuthority()) +
+      "/" +
+      PATH_TREE +
+      "/" +
+      Uri.encode(getTreeDocumentId(treeUri)) +
+      "/" +
+      PATH_DOCUMENT +
+      "/" +
+      Uri.encode(documentId)
+    );
+  }
+
+  public static Uri buildChildDocumentsUriUsingTree(
+    Uri treeUri,
+    String parentDocumentId
+  ) {
+    return Uri.parse(
+      buildDocumentUriUsingTree(treeUri, parentDocumentId).toString() +
+      "/" +
+      PATH_CHILDREN
+    );
+  }
+
+  private static String[] segments(Uri uri) {
+    // split the raw path so encoded slashes inside ids stay together
+    String raw = uri.toString();
+    int start = raw.indexOf("://");
+    if (start == -1) {
+      return new String[0];
+    }
+    start = raw.indexOf('/', start + 3);
+    if (start == -1) {
+      return new String[0];
+    }
+    int end = raw.length();
+    for (int i = start; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c == '?' || c == '#') {
+        end = i;
+        break;
+      }
+    }
+    String[] segments = raw.substring(start + 1, end).split("/");
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = Uri.decode(segments[i]);
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,24 @@
+package android.util;
+
+/**
+ * JVM stand-in for the benchmark, only the flags the server uses
+ */
+public final class Base64 {
+
+  public static final int DEFAULT = 0;
+  public static final int NO_WRAP = 2;
+
+  private Base64() {}
+
+  public static byte[] decode(String str, int flags) {
+    // like Android, tolerates line breaks in the input
+    return java.util.Base64.getMimeDecoder().decode(str);
+  }
+
+  public static String encodeToString(byte[] input, int flags) {
+    if ((flags & NO_WRAP) != 0) {
+      return java.util.Base64.getEncoder().encodeToString(input);
+    }
+    return java.util.Base64.getMimeEncoder().encodeToString(input) + "\n";
+  }
+}
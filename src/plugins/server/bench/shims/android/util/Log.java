@@ -0,0 +1,46 @@
+package android.util;
+
+/**
+ * JVM stand-in for the benchmark. Warnings and errors go to stderr, debug
+ * output only with -Dbench.verbose=true so it doesn't skew the numbers.
+ */
+public final class Log {
+
+  private static final boolean VERBOSE = Boolean.getBoolean("bench.verbose");
+
+  private Log() {}
+
+  public static int d(String tag, String msg) {
+    if (VERBOSE) {
+      System.err.println("D/" + tag + ": " + msg);
+    }
+    return 0;
+  }
+
+  public static int i(String tag, String msg) {
+    if (VERBOSE) {
+      System.err.println("I/" + tag + ": " + msg);
+    }
+    return 0;
+  }
+
+  public static int w(String tag, String msg) {
+    System.err.println("W/" + tag + ": " + msg);
+    return 0;
+  }
+
+  public static int w(String tag, String msg, Throwable tr) {
+    System.err.println("W/" + tag + ": " + msg + ": " + tr);
+    return 0;
+  }
+
+  public static int e(String tag, String msg) {
+    System.err.println("E/" + tag + ": " + msg);
+    return 0;
+  }
+
+  public static int e(String tag, String msg, Throwable tr) {
+    System.err.println("E/" + tag + ": " + msg + ": " + tr);
+    return 0;
+  }
+}
@@ -0,0 +1,192 @@
+package androidx.documentfile.provider;
+
+import android.content.Context;
+import android.net.Uri;
+import java.io.File;
+
+/**
+ * JVM stand-in for the benchmark. File backed documents behave like
+ * androidx's RawDocumentFile; content:// documents never exist since there
+ * are no providers off the device.
+ */
+public abstract class DocumentFile {
+
+  public static DocumentFile fromFile(File file) {
+    return new RawDocumentFile(file);
+  }
+
+  public static DocumentFile fromSingleUri(Context context, Uri singleUri) {
+    return new MissingDocumentFile(singleUri);
+  }
+
+  public static DocumentFile fromTreeUri(Context context, Uri treeUri) {
+    return new MissingDocumentFile(treeUri);
+  }
+
+  public abstract Uri getUri();
+
+  public abstract String getName();
+
+  public abstract String getType();
+
+  public abstract boolean isDirectory();
+
+  public abstract boolean isFile();
+
+  public abstract long lastModified();
+
+  public abstract long length();
+
+  public abstract boolean canRead();
+
+  public abstract boolean exists();
+
+  public abstract boolean delete();
+
+  public abstract DocumentFile[] listFiles();
+
+  public DocumentFile findFile(String displayName) {
+    for (DocumentFile file : listFiles()) {
+      if (displayName.equals(file.getName())) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  private static class RawDocumentFile extends DocumentFile {
+
+    private final File file;
+
+    RawDocumentFile(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public Uri getUri() {
+      return Uri.fromFile(file);
+    }
+
+    @Override
+    public String getName() {
+      return file.getName();
+    }
+
+    @Override
+    public String getType() {
+      return file.isDirectory() ? null : "application/octet-stream";
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return file.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+      return file.isFile();
+    }
+
+    @Override
+    public long lastModified() {
+      return file.lastModified();
+    }
+
+    @Override
+    public long length() {
+      return file.length();
+    }
+
+    @Override
+    public boolean canRead() {
+      return file.canRead();
+    }
+
+    @Override
+    public boolean exists() {
+      return file.exists();
+    }
+
+    @Override
+    public boolean delete() {
+      return file.delete();
+    }
+
+    @Override
+    public DocumentFile[] listFiles() {
+      File[] files = file.listFiles();
+      if (files == null) {
+        return new DocumentFile[0];
+      }
+      DocumentFile[] documents = new DocumentFile[files.length];
+      for (int i = 0; i < files.length; i++) {
+        documents[i] = new RawDocumentFile(files[i]);
+      }
+      return documents;
+    }
+  }
+
+  private static class MissingDocumentFile extends DocumentFile {
+
+    private final Uri uri;
+
+    MissingDocumentFile(Uri uri) {
+      this.uri = uri;
+    }
+
+    @Override
+    public Uri getUri() {
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return null;
+    }
+
+    @Override
+    public String getType() {
+      return null;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return false;
+    }
+
+    @Override
+    public boolean isFile() {
+      return false;
+    }
+
+    @Override
+    public long lastModified() {
+      return 0;
+    }
+
+    @Override
+    public long length() {
+      return 0;
+    }
+
+    @Override
+    public boolean canRead() {
+      return false;
+    }
+
+    @Override
+    public boolean exists() {
+      return false;
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public DocumentFile[] listFiles() {
+      return new DocumentFile[0];
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * JVM stand-in for the benchmark. There is no WebView to deliver results to,
+ * override sendPluginResult() to act on them.
+ */
+public class CallbackContext {
+
+  private final String callbackId;
+  private boolean finished;
+
+  public CallbackContext(String callbackId) {
+    this.callbackId = callbackId;
+  }
+
+  public String getCallbackId() {
+    return callbackId;
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  public void sendPluginResult(PluginResult pluginResult) {
+    synchronized (this) {
+      if (!pluginResult.getKeepCallback()) {
+        finished = true;
+      }
+    }
+  }
+
+  public void success(JSONObject message) {
+    sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+  }
+
+  public void success(JSONArray message) {
+    sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+  }
+
+  public void success(String message) {
+    sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+  }
+
+  public void success() {
+    sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  public void error(String message) {
+    sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+  }
+}
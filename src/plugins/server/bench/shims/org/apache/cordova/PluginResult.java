@@ -0,0 +1,134 @@
+package org.apache.cordova;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * JVM stand-in for the benchmark with the accessors of Cordova's
+ * PluginResult. Binary messages are kept as bytes instead of base64.
+ */
+public class PluginResult {
+
+  public enum Status {
+    NO_RESULT,
+    OK,
+    CLASS_NOT_FOUND_EXCEPTION,
+    ILLEGAL_ACCESS_EXCEPTION,
+    INSTANTIATION_EXCEPTION,
+    MALFORMED_URL_EXCEPTION,
+    IO_EXCEPTION,
+    INVALID_ACTION,
+    JSON_EXCEPTION,
+    ERROR,
+  }
+
+  public static final int MESSAGE_TYPE_STRING = 1;
+  public static final int MESSAGE_TYPE_JSON = 2;
+  public static final int MESSAGE_TYPE_NUMBER = 3;
+  public static final int MESSAGE_TYPE_BOOLEAN = 4;
+  public static final int MESSAGE_TYPE_NULL = 5;
+  public static final int MESSAGE_TYPE_ARRAYBUFFER = 6;
+  public static final int MESSAGE_TYPE_MULTIPART = 8;
+
+  private final int status;
+  private final int messageType;
+  private final String encodedMessage;
+  private final byte[] binaryMessage;
+  private final List<PluginResult> multipartMessages;
+  private boolean keepCallback = false;
+
+  public PluginResult(Status status) {
+    this(status, MESSAGE_TYPE_NULL, "null", null, null);
+  }
+
+  public PluginResult(Status status, String message) {
+    this(
+      status,
+      message == null ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING,
+      message == null ? "null" : JSONObject.quote(message),
+      null,
+      null
+    );
+  }
+
+  public PluginResult(Status status, JSONObject message) {
+    this(status, MESSAGE_TYPE_JSON, String.valueOf(message), null, null);
+  }
+
+  public PluginResult(Status status, JSONArray message) {
+    this(status, MESSAGE_TYPE_JSON, String.valueOf(message), null, null);
+  }
+
+  public PluginResult(Status status, int i) {
+    this(status, MESSAGE_TYPE_NUMBER, String.valueOf(i), null, null);
+  }
+
+  public PluginResult(Status status, boolean b) {
+    this(status, MESSAGE_TYPE_BOOLEAN, String.valueOf(b), null, null);
+  }
+
+  public PluginResult(Status status, byte[] data) {
+    this(status, MESSAGE_TYPE_ARRAYBUFFER, null, data, null);
+  }
+
+  public PluginResult(Status status, List<PluginResult> multipartMessages) {
+    this(
+      status,
+      MESSAGE_TYPE_MULTIPART,
+      null,
+      null,
+      new ArrayList<PluginResult>(multipartMessages)
+    );
+  }
+
+  private PluginResult(
+    Status status,
+    int messageType,
+    String encodedMessage,
+    byte[] binaryMessage,
+    List<PluginResult> multipartMessages
+  ) {
+    this.status = status.ordinal();
+    this.messageType = messageType;
+    this.encodedMessage = encodedMessage;
+    this.binaryMessage = binaryMessage;
+    this.multipartMessages = multipartMessages;
+  }
+
+  public void setKeepCallback(boolean b) {
+    this.keepCallback = b;
+  }
+
+  public boolean getKeepCallback() {
+    return keepCallback;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public int getMessageType() {
+    return messageType;
+  }
+
+  /**
+   * @return the message as JSON text, null for ARRAYBUFFER and MULTIPART
+   */
+  public String getMessage() {
+    return encodedMessage;
+  }
+
+  public byte[] getBinaryMessage() {
+    return binaryMessage;
+  }
+
+  public int getMultipartMessagesSize() {
+    return multipartMessages == null ? 0 : multipartMessages.size();
+  }
+
+  public PluginResult getMultipartMessage(int index) {
+    return multipartMessages.get(index);
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Benchmark target for ServerBenchmark.java. Paste into the devtools console
+ * of a debug build, then forward the port with `adb forward tcp:8158 tcp:8158`.
+ *
+ * Routes:
+ * - /static/* files of `root`, served natively (put an index.html and a
+ *   large.bin in it for the default scenarios)
+ * - /echo answered by the JS handler as soon as it arrives
+ *
+ * @param {string} root file:// or content:// directory
+ * @param {number} [port]
+ * @param {object} [options] extra Server.start options, e.g. { engine: "nio" }
+ */
+function startBenchmarkServer(root, port, options) {
+  port = port || 8158;
+  var body = JSON.stringify({ ok: true });
+  var server = CreateServer(
+    port,
+    function () {
+      console.log('Benchmark server listening on ' + port);
+    },
+    console.error.bind(console),
+    Object.assign(
+      {
+        routes: [{ prefix: '/static/', root: root }],
+      },
+      options || {},
+    ),
+  );
+  server.setOnRequestHandler(function (req) {
+    server.send(req.requestId, {
+      status: 200,
+      body: body,
+      headers: { 'Content-Type': 'application/json' },
+    });
+  });
+  return server;
+}
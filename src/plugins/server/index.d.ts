@@ -1,7 +1,95 @@
 interface Server{
   stop(onSuccess: () => void, onError: (error: any) => void): void;
+  /** `data.body` may be a string, ArrayBuffer or typed array */
   send(id: string, data: any, onSuccess: () => void, onError: (error: any) => void): void;
+  /** Appends a chunk to a response sent with `{ stream: true }` */
+  write(id: string, chunk: string | ArrayBuffer | ArrayBufferView, onSuccess?: () => void, onError?: (error: any) => void): void;
+  /** Finishes a streaming response */
+  end(id: string, onSuccess?: () => void, onError?: (error: any) => void): void;
+  /** Notifies live reload clients that files changed; with no files the pages reload */
+  reload(fileUris?: string[], onSuccess?: () => void, onError?: (error: any) => void): void;
+  /** Requests waiting for the handler, open streams, and completed/timed out/rejected/late counters */
+  pending(onSuccess: (stats: any) => void, onError?: (error: any) => void): void;
+  /**
+   * Per-route request counts, bytes sent and latency histograms (queue,
+   * handler wait, file open, total) in milliseconds. Also served at
+   * /__acode/metrics.
+   */
+  stats(reset: boolean, onSuccess: (stats: any) => void, onError?: (error: any) => void): void;
+  /** Answers several requests in one bridge call */
+  sendBatch(responses: { requestId: string, response: any }[], onSuccess?: () => void, onError?: (error: any) => void): void;
+  /** Replaces the routes served natively, without calling the request handler */
+  setRoutes(routes: StaticRoute[], onSuccess?: () => void, onError?: (error: any) => void): void;
+  /**
+   * Drops cached handler responses under the URL path prefix, or all of them.
+   * A response is cached when sent with `cache: ttl` or
+   * `cache: { ttl, vary: [headerName] }`.
+   */
+  invalidate(pathPrefix?: string, onSuccess?: () => void, onError?: (error: any) => void): void;
+  /** Forgets cached metadata (size, mtime, ETag) of files under the URI prefix, or of all files */
+  invalidateFiles(uriPrefix?: string, onSuccess?: () => void, onError?: (error: any) => void): void;
   port: number;
 }
 
-declare var CreateServer: (port: number, onSuccess: (msg: any) => void, onError: (err: any) => void) => Server;
\ No newline at end of file
+interface StaticRoute{
+  /** URL path prefix, e.g. "/" or "/assets/" */
+  prefix?: string;
+  /** file:// or content:// tree URI the prefix maps to */
+  root: string;
+  /** File or files tried for directory requests, defaults to "index.html" */
+  index?: string | string[] | null;
+  /** File, relative to root, served for page loads that match nothing (single-page apps) */
+  fallback?: string;
+  /** List directories without an index as HTML, or JSON with ?format=json */
+  listing?: boolean;
+}
+
+interface ServerOptions{
+  /** Milliseconds to wait for a response from the request handler before replying 504 */
+  timeout?: number;
+  /** Routes served natively, unmatched requests go to the request handler */
+  routes?: StaticRoute[];
+  /** Serve text files gzip-compressed when the client accepts it, defaults to true */
+  compress?: boolean;
+  /** Files smaller than this many bytes are sent uncompressed, defaults to 1024 */
+  compressThreshold?: number;
+  /** Milliseconds file metadata is cached before the provider is queried again, defaults to 2000 */
+  metadataTtl?: number;
+  /** Worker threads handling connections, defaults to 16 */
+  maxThreads?: number;
+  /** Connections waiting for a worker before new ones get 503, defaults to 64 */
+  queueLength?: number;
+  /** Socket read timeout in milliseconds for the first request, defaults to 5000 */
+  readTimeout?: number;
+  /** Milliseconds a kept-alive connection waits for the next request, 0 disables keep-alive */
+  keepAliveTimeout?: number;
+  /** If > 0, requests are delivered to the handler in batches collected over this many milliseconds */
+  batchRequests?: number;
+  /**
+   * Bodies up to this many bytes are passed inline as `body` (a string, or an
+   * ArrayBuffer for binary content types), larger ones as `bodyFile`,
+   * defaults to 65536
+   */
+  bodyMemoryLimit?: number;
+  /** Requests with a larger body get 413, defaults to 64 MiB */
+  maxBodySize?: number;
+  /**
+   * Injects a live reload client into served HTML pages. Changes under
+   * file:// route roots and `watch` are picked up natively and debounced;
+   * CSS-only changes swap stylesheets, anything else reloads the page.
+   */
+  liveReload?: boolean | { debounce?: number, watch?: string[] };
+  /** Requests waiting for the handler at once before new ones get 503, defaults to 64 */
+  maxPending?: number;
+  /** Memory budget in bytes for cached handler responses, defaults to 8 MiB */
+  cacheSize?: number;
+  /** Extra or replacement MIME types by file extension, e.g. { ts: "text/javascript" } */
+  mimeTypes?: { [extension: string]: string };
+  /**
+   * Connection engine. "nio" parks idle keep-alive connections of all servers
+   * on one selector thread instead of holding a worker each, defaults to "thread"
+   */
+  engine?: "thread" | "nio";
+}
+
+declare var CreateServer: (port: number, onSuccess: (msg: any) => void, onError: (err: any) => void, options?: ServerOptions) => Server;
\ No newline at end of file
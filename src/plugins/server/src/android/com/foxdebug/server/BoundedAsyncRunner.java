@@ -0,0 +1,162 @@
+package com.foxdebug.server;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs connections on a fixed-size pool with a bounded queue. Connections
+ * that don't fit are answered with 503 and closed right away instead of
+ * spawning another thread.
+ */
+class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+  static final int DEFAULT_MAX_THREADS = 16;
+  static final int DEFAULT_QUEUE_LENGTH = 64;
+  static final int MAX_DETACHED = 32;
+
+  private static final byte[] SERVICE_UNAVAILABLE = (
+    "HTTP/1.1 503 Service Unavailable\r\n" +
+    "Content-Type: text/plain\r\n" +
+    "Content-Length: 19\r\n" +
+    "Retry-After: 1\r\n" +
+    "Connection: close\r\n\r\n" +
+    "Service Unavailable"
+  ).getBytes(StandardCharsets.US_ASCII);
+
+  private final ThreadPoolExecutor executor;
+  private final List<NanoHTTPD.ClientHandler> running = Collections.synchronizedList(
+    new ArrayList<NanoHTTPD.ClientHandler>()
+  );
+  private int detached = 0;
+
+  BoundedAsyncRunner(final int port, int maxThreads, int queueLength) {
+    final AtomicInteger count = new AtomicInteger();
+    this.executor =
+      new ThreadPoolExecutor(
+        maxThreads,
+        maxThreads,
+        30,
+        TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(Math.max(1, queueLength)),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(
+              runnable,
+              "Server:" + port + " #" + count.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+          }
+        }
+      );
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void exec(NanoHTTPD.ClientHandler handler) {
+    running.add(handler);
+    try {
+      executor.execute(handler);
+    } catch (RejectedExecutionException e) {
+      running.remove(handler);
+      reject(handler);
+    }
+  }
+
+  @Override
+  public void closed(NanoHTTPD.ClientHandler handler) {
+    running.remove(handler);
+  }
+
+  @Override
+  public void closeAll() {
+    for (NanoHTTPD.ClientHandler handler : new ArrayList<NanoHTTPD.ClientHandler>(
+      running
+    )) {
+      handler.close();
+    }
+  }
+
+  /**
+   * Runs a request of a connection owned by the NIO engine
+   *
+   * @param task
+   * @param socket answered with 503 if the pool is full
+   * @return false if the task was rejected
+   */
+  boolean submit(Runnable task, Socket socket) {
+    try {
+      executor.execute(task);
+      return true;
+    } catch (RejectedExecutionException e) {
+      writeUnavailable(socket);
+      return false;
+    }
+  }
+
+  /**
+   * Takes the calling worker out of the bound for a response that stays open
+   * indefinitely, such as an event stream: the pool grows by one until
+   * reattach() is called.
+   *
+   * @return false if too many workers are detached already
+   */
+  synchronized boolean detach() {
+    if (detached >= MAX_DETACHED) {
+      return false;
+    }
+    detached++;
+    // maximum first, the core size may not exceed it
+    executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+    executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+    return true;
+  }
+
+  /**
+   * Undoes a detach() once the long-lived response is done
+   */
+  synchronized void reattach() {
+    if (detached == 0) {
+      return;
+    }
+    detached--;
+    executor.setCorePoolSize(executor.getCorePoolSize() - 1);
+    executor.setMaximumPoolSize(executor.getMaximumPoolSize() - 1);
+  }
+
+  /**
+   * Stops the worker threads, used when the server stops
+   */
+  void shutdown() {
+    closeAll();
+    executor.shutdownNow();
+  }
+
+  private void reject(NanoHTTPD.ClientHandler handler) {
+    if (handler instanceof NanoHTTPDWebserver.SocketClientHandler) {
+      writeUnavailable(((NanoHTTPDWebserver.SocketClientHandler) handler).socket);
+    }
+    handler.close();
+  }
+
+  private static void writeUnavailable(Socket socket) {
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write(SERVICE_UNAVAILABLE);
+      out.flush();
+    } catch (IOException ignored) {}
+  }
+}
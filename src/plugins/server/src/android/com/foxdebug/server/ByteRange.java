@@ -0,0 +1,103 @@
+package com.foxdebug.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inclusive byte range of a representation, as requested by a Range header
+ * (RFC 7233).
+ */
+class ByteRange {
+
+  /**
+   * Upper bound on ranges honoured in one request; larger sets are ignored and
+   * the full representation is sent instead.
+   */
+  static final int MAX_RANGES = 64;
+
+  final long start;
+  final long end;
+
+  ByteRange(long start, long end) {
+    this.start = start;
+    this.end = end;
+  }
+
+  long length() {
+    return end - start + 1;
+  }
+
+  String contentRange(long total) {
+    return "bytes " + start + "-" + end + "/" + total;
+  }
+
+  /**
+   * Parses a Range header against a representation of the given length.
+   * Supports "N-M", open ended "N-" and suffix "-N" specs, clamps the end to
+   * the last byte and drops unsatisfiable specs.
+   *
+   * @param header value of the Range header
+   * @param length length of the representation
+   * @return the satisfiable ranges (empty if none is satisfiable), or null if
+   * the header is invalid and must be ignored
+   */
+  static List<ByteRange> parse(String header, long length) {
+    if (header == null) {
+      return null;
+    }
+    header = header.trim();
+    if (!header.startsWith("bytes=")) {
+      return null;
+    }
+
+    String[] specs = header.substring("bytes=".length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+
+    List<ByteRange> ranges = new ArrayList<ByteRange>();
+    try {
+      for (String spec : specs) {
+        spec = spec.trim();
+        int minus = spec.indexOf('-');
+        if (minus < 0) {
+          return null;
+        }
+
+        String first = spec.substring(0, minus).trim();
+        String last = spec.substring(minus + 1).trim();
+        long start;
+        long end;
+
+        if (first.isEmpty()) {
+          // suffix range: last N bytes
+          long suffix = Long.parseLong(last);
+          if (suffix < 0) {
+            return null;
+          }
+          if (suffix == 0 || length == 0) {
+            continue;
+          }
+          start = Math.max(0, length - suffix);
+          end = length - 1;
+        } else {
+          start = Long.parseLong(first);
+          end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+          if (start < 0 || end < start) {
+            return null;
+          }
+          if (start >= length) {
+            continue;
+          }
+          end = Math.min(end, length - 1);
+        }
+
+        ranges.add(new ByteRange(start, end));
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+
+    return ranges;
+  }
+}
@@ -0,0 +1,197 @@
+package com.foxdebug.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of gzip-compressed file variants, keyed by a SHA-1 of the
+ * source URI, modification time and length so a changed file never hits a
+ * stale entry. The directory is shared by all servers and kept across runs,
+ * so the key has to be collision-safe.
+ */
+class CompressionCache {
+
+  static final long DEFAULT_THRESHOLD = 1024;
+  static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+  private final File dir;
+  private final long threshold;
+  private final long maxSize;
+
+  CompressionCache(File dir, long threshold, long maxSize) {
+    this.dir = dir;
+    this.threshold = threshold;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Checks whether a response is worth compressing
+   *
+   * @param mime   mime type of the file
+   * @param length length of the file
+   * @return
+   */
+  boolean shouldCompress(String mime, long length) {
+    if (mime == null || length < threshold) {
+      return false;
+    }
+    mime = mime.toLowerCase();
+    return (
+      mime.startsWith("text/") ||
+      mime.contains("javascript") ||
+      mime.contains("json") ||
+      mime.contains("xml") ||
+      mime.startsWith("application/wasm")
+    );
+  }
+
+  /**
+   * Checks whether the client accepts gzip content coding
+   *
+   * @param acceptEncoding value of the Accept-Encoding header
+   * @return
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      String name = parts[0].trim();
+      if (!"gzip".equalsIgnoreCase(name) && !"*".equals(name)) {
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++) {
+        String param = parts[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            if (Double.parseDouble(param.substring(2)) == 0) {
+              return false;
+            }
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the compressed variant of a file, compressing the source into
+   * the cache if it is not there yet.
+   *
+   * @param uri          URI of the source file
+   * @param lastModified modification time of the source file
+   * @param length       length of the source file
+   * @param source       uncompressed content, always closed
+   * @return the compressed file
+   * @throws IOException
+   */
+  File get(String uri, long lastModified, long length, InputStream source)
+    throws IOException {
+    String key = key(uri, lastModified, length);
+    File cached = new File(dir, key + ".gz");
+    if (cached.exists()) {
+      source.close();
+      cached.setLastModified(System.currentTimeMillis());
+      return cached;
+    }
+
+    if (!dir.exists() && !dir.mkdirs()) {
+      source.close();
+      throw new IOException("Unable to create " + dir);
+    }
+
+    File temp = File.createTempFile(key, ".tmp", dir);
+    try {
+      OutputStream out = new GZIPOutputStream(
+        new FileOutputStream(temp),
+        8192
+      );
+      try {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      } finally {
+        out.close();
+        source.close();
+      }
+      if (!temp.renameTo(cached) && !cached.exists()) {
+        throw new IOException("Unable to write " + cached);
+      }
+    } finally {
+      temp.delete();
+    }
+
+    trim();
+    return cached;
+  }
+
+  private static String key(String uri, long lastModified, long length) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest(
+        (uri + "\n" + lastModified + "\n" + length).getBytes(
+            StandardCharsets.UTF_8
+          )
+      );
+      StringBuilder hex = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+        hex.append(Character.forDigit(b & 0xf, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // every Android runtime ships SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Deletes least recently used entries until the cache fits in maxSize
+   */
+  private synchronized void trim() {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    long size = 0;
+    for (File file : files) {
+      size += file.length();
+    }
+    if (size <= maxSize) {
+      return;
+    }
+    Arrays.sort(
+      files,
+      new Comparator<File>() {
+        @Override
+        public int compare(File a, File b) {
+          return Long.compare(a.lastModified(), b.lastModified());
+        }
+      }
+    );
+    for (File file : files) {
+      if (size <= maxSize) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        size -= length;
+      }
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package com.foxdebug.server;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import androidx.documentfile.provider.DocumentFile;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Directory listings rendered natively as HTML or JSON. Listings are cached
+ * per directory for the metadata TTL and dropped when a file below the
+ * directory is reported as changed.
+ */
+class DirectoryListing {
+
+  static final int DEFAULT_CAPACITY = 64;
+
+  static class Entry {
+
+    final String name;
+    final boolean directory;
+    final long length;
+    final long lastModified;
+
+    Entry(String name, boolean directory, long length, long lastModified) {
+      this.name = name;
+      this.directory = directory;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+  }
+
+  private static class Cached {
+
+    final List<Entry> entries;
+    final long loadedAt;
+
+    Cached(List<Entry> entries, long loadedAt) {
+      this.entries = entries;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry a, Entry b) {
+      if (a.directory != b.directory) {
+        return a.directory ? -1 : 1;
+      }
+      return a.name.compareToIgnoreCase(b.name);
+    }
+  };
+
+  private final Context context;
+  private final long ttl;
+  private final LinkedHashMap<String, Cached> cache;
+
+  DirectoryListing(Context context, final int capacity, long ttl) {
+    this.context = context;
+    this.ttl = ttl;
+    this.cache =
+      new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+          return size() > capacity;
+        }
+      };
+  }
+
+  /**
+   * Lists a directory, directories first, then by name
+   *
+   * @param directory
+   * @return
+   */
+  List<Entry> list(DocumentFile directory) {
+    String key = directory.getUri().toString();
+    long now = System.currentTimeMillis();
+
+    synchronized (cache) {
+      Cached cached = cache.get(key);
+      if (cached != null && now - cached.loadedAt < ttl) {
+        return cached.entries;
+      }
+    }
+
+    List<Entry> entries = load(directory);
+    Collections.sort(entries, ORDER);
+    entries = Collections.unmodifiableList(entries);
+
+    synchronized (cache) {
+      cache.put(key, new Cached(entries, now));
+    }
+    return entries;
+  }
+
+  /**
+   * Drops cached listings affected by a change below the given URI
+   *
+   * @param uriPrefix changed file or directory URI, null drops everything
+   */
+  void invalidate(String uriPrefix) {
+    synchronized (cache) {
+      if (uriPrefix == null) {
+        cache.clear();
+        return;
+      }
+      Iterator<String> keys = cache.keySet().iterator();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        if (key.startsWith(uriPrefix) || uriPrefix.startsWith(key)) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  private List<Entry> load(DocumentFile directory) {
+    List<Entry> entries = new ArrayList<Entry>();
+    Uri uri = directory.getUri();
+
+    if ("file".equals(uri.getScheme())) {
+      File[] files = new File(uri.getPath()).listFiles();
+      if (files != null) {
+        for (File file : files) {
+          entries.add(
+            new Entry(
+              file.getName(),
+              file.isDirectory(),
+              file.length(),
+              file.lastModified()
+            )
+          );
+        }
+      }
+      return entries;
+    }
+
+    // one provider query instead of several per child through DocumentFile
+    Cursor cursor = null;
+    try {
+      Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(
+        uri,
+        DocumentsContract.getDocumentId(uri)
+      );
+      cursor =
+        context
+          .getContentResolver()
+          .query(
+            children,
+            new String[] {
+              DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+              DocumentsContract.Document.COLUMN_MIME_TYPE,
+              DocumentsContract.Document.COLUMN_SIZE,
+              DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            },
+            null,
+            null,
+            null
+          );
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          entries.add(
+            new Entry(
+              cursor.getString(0),
+              DocumentsContract.Document.MIME_TYPE_DIR.equals(
+                cursor.getString(1)
+              ),
+              cursor.isNull(2) ? 0 : cursor.getLong(2),
+              cursor.isNull(3) ? 0 : cursor.getLong(3)
+            )
+          );
+        }
+        return entries;
+      }
+    } catch (Exception e) {
+      entries.clear();
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    for (DocumentFile file : directory.listFiles()) {
+      entries.add(
+        new Entry(
+          file.getName(),
+          file.isDirectory(),
+          file.length(),
+          file.lastModified()
+        )
+      );
+    }
+    return entries;
+  }
+
+  /**
+   * @param path request path of the directory, ending with a slash
+   * @param entries
+   * @return
+   */
+  static String toHTML(String path, List<Entry> entries) {
+    String title = escape(path);
+    StringBuilder html = new StringBuilder();
+    html
+      .append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n")
+      .append(
+        "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n"
+      )
+      .append("<title>Index of ")
+      .append(title)
+      .append("</title>\n<style>")
+      .append("body{font-family:sans-serif;margin:1em}")
+      .append("td{padding:.2em 1em .2em 0}td.n{text-align:right}")
+      .append("</style>\n</head>\n<body>\n<h1>Index of ")
+      .append(title)
+      .append("</h1>\n<table>\n");
+    if (!"/".equals(path)) {
+      html.append("<tr><td><a href=\"../\">../</a></td><td></td></tr>\n");
+    }
+    for (Entry entry : entries) {
+      String name = entry.directory ? entry.name + "/" : entry.name;
+      html
+        .append("<tr><td><a href=\"")
+        .append(escape(Uri.encode(entry.name)))
+        .append(entry.directory ? "/" : "")
+        .append("\">")
+        .append(escape(name))
+        .append("</a></td><td class=\"n\">")
+        .append(entry.directory ? "-" : String.valueOf(entry.length))
+        .append("</td></tr>\n");
+    }
+    html.append("</table>\n</body>\n</html>\n");
+    return html.toString();
+  }
+
+  /**
+   * { "path": "/dir/", "entries": [{ "name", "type": "file" | "directory",
+   * "size", "lastModified" }] }
+   *
+   * @param path
+   * @param entries
+   * @return
+   * @throws JSONException
+   */
+  static String toJSON(String path, List<Entry> entries)
+    throws JSONException {
+    JSONArray array = new JSONArray();
+    for (Entry entry : entries) {
+      JSONObject json = new JSONObject();
+      json.put("name", entry.name);
+      json.put("type", entry.directory ? "directory" : "file");
+      json.put("size", entry.length);
+      json.put("lastModified", entry.lastModified);
+      array.put(json);
+    }
+    JSONObject json = new JSONObject();
+    json.put("path", path);
+    json.put("entries", array);
+    return json.toString();
+  }
+
+  private static String escape(String text) {
+    StringBuilder escaped = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          escaped.append("&lt;");
+          break;
+        case '>':
+          escaped.append("&gt;");
+          break;
+        case '&':
+          escaped.append("&amp;");
+          break;
+        case '"':
+          escaped.append("&quot;");
+          break;
+        case '\'':
+          escaped.append("&#39;");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+}
@@ -0,0 +1,217 @@
+package com.foxdebug.server;
+
+import androidx.documentfile.provider.DocumentFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the metadata serveFile() needs, so repeated and
+ * conditional requests don't query the document provider every time. Static
+ * route paths are cached with the URI they resolved to, so a revalidation
+ * can be answered without resolving the path again.
+ */
+class FileMetadataCache {
+
+  static final int DEFAULT_CAPACITY = 256;
+  static final long DEFAULT_TTL = 2000;
+
+  static class Entry {
+
+    final long length;
+    final long lastModified;
+    final String mime;
+    final String etag;
+    final long loadedAt;
+
+    Entry(
+      long length,
+      long lastModified,
+      String mime,
+      String etag,
+      long loadedAt
+    ) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.mime = mime;
+      this.etag = etag;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  /**
+   * What a static route path resolved to
+   */
+  static class Resolved {
+
+    /**
+     * URI of the file or directory, null if nothing exists at the path
+     */
+    final String uri;
+    final boolean directory;
+    final long loadedAt;
+
+    Resolved(String uri, boolean directory, long loadedAt) {
+      this.uri = uri;
+      this.directory = directory;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries;
+  private final LinkedHashMap<String, Resolved> paths;
+  private final long ttl;
+
+  FileMetadataCache(final int capacity, long ttl) {
+    this.ttl = ttl;
+    this.entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > capacity;
+        }
+      };
+    this.paths =
+      new LinkedHashMap<String, Resolved>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+          Map.Entry<String, Resolved> eldest
+        ) {
+          return size() > capacity;
+        }
+      };
+  }
+
+  /**
+   * Returns the metadata of the file, loading it from the provider if it is
+   * not cached or older than the TTL.
+   *
+   * @param file
+   * @param mime mime type to remember for the file
+   * @return
+   */
+  Entry get(DocumentFile file, String mime) {
+    String key = file.getUri().toString();
+    long now = System.currentTimeMillis();
+
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+    if (entry != null && now - entry.loadedAt < ttl) {
+      if (!"file".equals(file.getUri().getScheme())) {
+        return entry;
+      }
+      // a stat is cheap, and files rewritten in place (e.g. preview temp
+      // files) must not be served with the old length
+      long length = file.length();
+      long lastModified = file.lastModified();
+      if (length == entry.length && lastModified == entry.lastModified) {
+        return entry;
+      }
+      return put(
+        key,
+        length,
+        lastModified,
+        entry.mime != null ? entry.mime : mime
+      );
+    }
+
+    return put(key, file.length(), file.lastModified(), mime);
+  }
+
+  /**
+   * Stores metadata that was read along with something else, e.g. while
+   * resolving a path
+   *
+   * @param uri
+   * @param length
+   * @param lastModified
+   * @param mime         may be null
+   * @return
+   */
+  Entry put(String uri, long length, long lastModified, String mime) {
+    String etag = Integer.toHexString(
+      (uri + lastModified + "" + length).hashCode()
+    );
+    Entry entry = new Entry(
+      length,
+      lastModified,
+      mime,
+      etag,
+      System.currentTimeMillis()
+    );
+
+    synchronized (entries) {
+      entries.put(uri, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * @param key route root followed by the path below it
+   * @return where the path resolved to, or null if unknown or expired
+   */
+  Resolved getPath(String key) {
+    synchronized (entries) {
+      Resolved resolved = paths.get(key);
+      if (
+        resolved == null ||
+        System.currentTimeMillis() - resolved.loadedAt >= ttl
+      ) {
+        return null;
+      }
+      return resolved;
+    }
+  }
+
+  /**
+   * @param key       route root followed by the path below it
+   * @param uri       what it resolved to, null if nothing exists there
+   * @param directory
+   */
+  void putPath(String key, String uri, boolean directory) {
+    synchronized (entries) {
+      paths.put(
+        key,
+        new Resolved(uri, directory, System.currentTimeMillis())
+      );
+    }
+  }
+
+  /**
+   * Drops cached entries whose URI starts with the given prefix, and paths
+   * found missing since the change may have created them
+   *
+   * @param uriPrefix prefix to match, null drops everything
+   */
+  void invalidate(String uriPrefix) {
+    synchronized (entries) {
+      if (uriPrefix == null) {
+        entries.clear();
+        paths.clear();
+        return;
+      }
+      Iterator<String> keys = entries.keySet().iterator();
+      while (keys.hasNext()) {
+        if (keys.next().startsWith(uriPrefix)) {
+          keys.remove();
+        }
+      }
+      Iterator<Map.Entry<String, Resolved>> resolved = paths
+        .entrySet()
+        .iterator();
+      while (resolved.hasNext()) {
+        Map.Entry<String, Resolved> path = resolved.next();
+        String uri = path.getValue().uri;
+        if (
+          uri == null ||
+          uri.startsWith(uriPrefix) ||
+          path.getKey().startsWith(uriPrefix)
+        ) {
+          resolved.remove();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,327 @@
+package com.foxdebug.server;
+
+import android.net.Uri;
+import android.os.FileObserver;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Live reload channel of the preview server. Watches the served roots and
+ * pushes debounced change events to pages connected over Server-Sent Events.
+ * The injected client swaps stylesheets when only CSS changed and reloads
+ * the page otherwise.
+ */
+class LiveReload {
+
+  static final String EVENTS_PATH = "/__acode/livereload";
+  static final String CLIENT_PATH = "/__acode/livereload.js";
+  static final long DEFAULT_DEBOUNCE = 100;
+
+  static final String CLIENT_TAG =
+    "\n<script src=\"" + CLIENT_PATH + "\"></script>\n";
+
+  static final String CLIENT_SCRIPT =
+    "(function () {\n" +
+    "  if (!window.EventSource || window.__acodeLiveReload) return;\n" +
+    "  window.__acodeLiveReload = true;\n" +
+    "  var source = new EventSource('" +
+    EVENTS_PATH +
+    "');\n" +
+    "  source.addEventListener('change', function (e) {\n" +
+    "    var paths = JSON.parse(e.data).paths;\n" +
+    "    var cssOnly = paths.length > 0 && paths.every(function (p) {\n" +
+    "      return /\\.css$/i.test(p);\n" +
+    "    });\n" +
+    "    if (!cssOnly) return location.reload();\n" +
+    "    var links = document.querySelectorAll('link[rel=\"stylesheet\"]');\n" +
+    "    Array.prototype.forEach.call(links, function (link) {\n" +
+    "      var url = new URL(link.href);\n" +
+    "      url.searchParams.set('_lr', Date.now());\n" +
+    "      link.href = url.href;\n" +
+    "    });\n" +
+    "  });\n" +
+    "})();\n";
+
+  private static final long HEARTBEAT_INTERVAL = 15000;
+  private static final long PROBE_DELAY = 1000;
+  private static final int MAX_WATCHED_DIRECTORIES = 2048;
+  private static final int WATCH_MASK =
+    FileObserver.CLOSE_WRITE |
+    FileObserver.CREATE |
+    FileObserver.DELETE |
+    FileObserver.MOVED_FROM |
+    FileObserver.MOVED_TO |
+    FileObserver.DELETE_SELF |
+    FileObserver.MOVE_SELF;
+
+  interface Listener {
+    void onChange(String fileUri);
+  }
+
+  private final long debounce;
+  private final Listener listener;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final CopyOnWriteArrayList<ResponseStream> clients = new CopyOnWriteArrayList<ResponseStream>();
+  private final Map<String, FileObserver> observers = new HashMap<String, FileObserver>();
+  private final Set<String> changed = new LinkedHashSet<String>();
+  private boolean flushScheduled = false;
+
+  LiveReload(long debounce, Listener listener) {
+    this.debounce = debounce;
+    this.listener = listener;
+    scheduler.scheduleAtFixedRate(
+      new Runnable() {
+        @Override
+        public void run() {
+          broadcast(": ping\n\n");
+        }
+      },
+      HEARTBEAT_INTERVAL,
+      HEARTBEAT_INTERVAL,
+      TimeUnit.MILLISECONDS
+    );
+  }
+
+  /**
+   * Opens an event stream for a new client
+   *
+   * @param onClose called once the stream is closed, e.g. the page went away
+   * @return
+   */
+  ResponseStream connect(Runnable onClose) {
+    // heartbeats keep the stream from hitting its read timeout
+    ResponseStream stream = new ResponseStream(
+      HEARTBEAT_INTERVAL * 4,
+      onClose
+    );
+    stream.write("retry: 1000\n\n".getBytes(StandardCharsets.UTF_8));
+    clients.add(stream);
+    return stream;
+  }
+
+  /**
+   * Replaces the watched roots. Only file:// roots can be watched natively,
+   * other roots rely on notify().
+   *
+   * @param roots root URIs
+   */
+  synchronized void watch(List<String> roots) {
+    stopWatching();
+    for (String root : roots) {
+      if (root.startsWith("file:///")) {
+        watchTree(new File(Uri.parse(root).getPath()));
+      }
+    }
+  }
+
+  /**
+   * Reports changed files, e.g. saved through a content:// provider
+   *
+   * @param fileUris
+   */
+  void notify(List<String> fileUris) {
+    for (String fileUri : fileUris) {
+      changed(fileUri);
+    }
+  }
+
+  /**
+   * Makes every client reload the page
+   */
+  void reloadAll() {
+    broadcast("event: change\ndata: {\"paths\":[]}\n\n");
+    probeSoon();
+  }
+
+  synchronized void stop() {
+    stopWatching();
+    scheduler.shutdownNow();
+    for (ResponseStream client : clients) {
+      client.end();
+    }
+    clients.clear();
+  }
+
+  private void watchTree(File dir) {
+    if (observers.size() >= MAX_WATCHED_DIRECTORIES || !dir.isDirectory()) {
+      return;
+    }
+    String name = dir.getName();
+    if (name.equals(".git") || name.equals("node_modules")) {
+      return;
+    }
+
+    String path = dir.getAbsolutePath();
+    if (observers.containsKey(path)) {
+      return;
+    }
+    FileObserver observer = new DirectoryObserver(path);
+    observer.startWatching();
+    observers.put(path, observer);
+
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        watchTree(child);
+      }
+    }
+  }
+
+  private void stopWatching() {
+    for (FileObserver observer : observers.values()) {
+      observer.stopWatching();
+    }
+    observers.clear();
+  }
+
+  private void changed(String fileUri) {
+    if (listener != null) {
+      listener.onChange(fileUri);
+    }
+    synchronized (changed) {
+      changed.add(fileUri);
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    try {
+      scheduler.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        },
+        debounce,
+        TimeUnit.MILLISECONDS
+      );
+    } catch (RuntimeException ignored) {
+      // stopped
+    }
+  }
+
+  private void flush() {
+    List<String> paths;
+    synchronized (changed) {
+      paths = new ArrayList<String>(changed);
+      changed.clear();
+      flushScheduled = false;
+    }
+    if (paths.isEmpty()) {
+      return;
+    }
+    try {
+      JSONObject event = new JSONObject();
+      event.put("paths", new JSONArray(paths));
+      broadcast("event: change\ndata: " + event.toString() + "\n\n");
+      probeSoon();
+    } catch (JSONException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Pages reload right after a change event. Pinging shortly after finds
+   * their old streams closed, instead of holding them until the next
+   * heartbeat.
+   */
+  private void probeSoon() {
+    try {
+      scheduler.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            broadcast(": ping\n\n");
+          }
+        },
+        PROBE_DELAY,
+        TimeUnit.MILLISECONDS
+      );
+    } catch (RuntimeException ignored) {
+      // stopped
+    }
+  }
+
+  private class DirectoryObserver extends FileObserver {
+
+    private final String path;
+
+    /**
+     * The File constructor would need API 29
+     */
+    @SuppressWarnings("deprecation")
+    DirectoryObserver(String path) {
+      super(path, WATCH_MASK);
+      this.path = path;
+    }
+
+    @Override
+    public void onEvent(int event, String child) {
+      if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+        // the directory is gone, its parent reports the change
+        stopWatching();
+        synchronized (LiveReload.this) {
+          if (observers.get(path) == this) {
+            observers.remove(path);
+          }
+        }
+        return;
+      }
+      if (child == null) {
+        return;
+      }
+      final File file = new File(path, child);
+      if ((event & FileObserver.CREATE) != 0) {
+        synchronized (LiveReload.this) {
+          watchTree(file);
+        }
+      } else if ((event & FileObserver.MOVED_TO) != 0) {
+        // a moved directory keeps its inotify watch; let its MOVE_SELF drop
+        // the old observer first so stopping it can't remove the new watch
+        try {
+          scheduler.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                synchronized (LiveReload.this) {
+                  watchTree(file);
+                }
+              }
+            },
+            debounce,
+            TimeUnit.MILLISECONDS
+          );
+        } catch (RuntimeException ignored) {
+          // stopped
+        }
+      }
+      changed(Uri.fromFile(file).toString());
+    }
+  }
+
+  private void broadcast(String message) {
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    for (ResponseStream client : clients) {
+      if (!client.write(bytes)) {
+        clients.remove(client);
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.foxdebug.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Extension to MIME type table of the preview server. Text types carry a
+ * UTF-8 charset so browsers don't have to sniff.
+ */
+class MimeTypes {
+
+  private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+
+  static {
+    text("html", "text/html");
+    text("htm", "text/html");
+    text("xhtml", "application/xhtml+xml");
+    text("css", "text/css");
+    text("js", "text/javascript");
+    text("mjs", "text/javascript");
+    text("cjs", "text/javascript");
+    text("json", "application/json");
+    text("map", "application/json");
+    text("jsonld", "application/ld+json");
+    text("webmanifest", "application/manifest+json");
+    text("txt", "text/plain");
+    text("md", "text/markdown");
+    text("csv", "text/csv");
+    text("xml", "application/xml");
+    text("yaml", "text/yaml");
+    text("yml", "text/yaml");
+    text("vtt", "text/vtt");
+    text("svg", "image/svg+xml");
+
+    DEFAULTS.put("wasm", "application/wasm");
+    DEFAULTS.put("pdf", "application/pdf");
+    DEFAULTS.put("zip", "application/zip");
+    DEFAULTS.put("gz", "application/gzip");
+
+    DEFAULTS.put("png", "image/png");
+    DEFAULTS.put("apng", "image/apng");
+    DEFAULTS.put("jpg", "image/jpeg");
+    DEFAULTS.put("jpeg", "image/jpeg");
+    DEFAULTS.put("gif", "image/gif");
+    DEFAULTS.put("webp", "image/webp");
+    DEFAULTS.put("avif", "image/avif");
+    DEFAULTS.put("bmp", "image/bmp");
+    DEFAULTS.put("ico", "image/x-icon");
+
+    DEFAULTS.put("mp3", "audio/mpeg");
+    DEFAULTS.put("wav", "audio/wav");
+    DEFAULTS.put("ogg", "audio/ogg");
+    DEFAULTS.put("oga", "audio/ogg");
+    DEFAULTS.put("m4a", "audio/mp4");
+    DEFAULTS.put("aac", "audio/aac");
+    DEFAULTS.put("flac", "audio/flac");
+    DEFAULTS.put("mp4", "video/mp4");
+    DEFAULTS.put("webm", "video/webm");
+    DEFAULTS.put("ogv", "video/ogg");
+
+    DEFAULTS.put("woff", "font/woff");
+    DEFAULTS.put("woff2", "font/woff2");
+    DEFAULTS.put("ttf", "font/ttf");
+    DEFAULTS.put("otf", "font/otf");
+    DEFAULTS.put("eot", "application/vnd.ms-fontobject");
+
+    DEFAULTS.put("glb", "model/gltf-binary");
+    DEFAULTS.put("gltf", "model/gltf+json");
+  }
+
+  private static void text(String extension, String mime) {
+    DEFAULTS.put(extension, mime + "; charset=utf-8");
+  }
+
+  private final Map<String, String> types;
+
+  MimeTypes() {
+    this.types = DEFAULTS;
+  }
+
+  /**
+   * @param overrides { "ext": "mime/type" }, extensions without the dot
+   * @throws JSONException
+   */
+  MimeTypes(JSONObject overrides) throws JSONException {
+    if (overrides == null || overrides.length() == 0) {
+      this.types = DEFAULTS;
+      return;
+    }
+    this.types = new HashMap<String, String>(DEFAULTS);
+    Iterator<String> keys = overrides.keys();
+    while (keys.hasNext()) {
+      String extension = keys.next();
+      String key = extension.startsWith(".")
+        ? extension.substring(1)
+        : extension;
+      this.types.put(key.toLowerCase(), overrides.getString(extension));
+    }
+  }
+
+  /**
+   * Finds the MIME type of a file name or path
+   *
+   * @param name
+   * @return the MIME type, or null if the extension is unknown
+   */
+  String lookup(String name) {
+    if (name == null) {
+      return null;
+    }
+    int query = name.indexOf('?');
+    if (query >= 0) {
+      name = name.substring(0, query);
+    }
+    int dot = name.lastIndexOf('.');
+    if (dot < 0 || dot < name.lastIndexOf('/')) {
+      return null;
+    }
+    return types.get(name.substring(dot + 1).toLowerCase());
+  }
+}
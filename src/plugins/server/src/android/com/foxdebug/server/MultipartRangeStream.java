@@ -0,0 +1,128 @@
+package com.foxdebug.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * multipart/byteranges body that opens each range lazily, so the parts are
+ * streamed one after another without buffering the file.
+ */
+class MultipartRangeStream extends InputStream {
+
+  interface Opener {
+    InputStream open(long offset) throws IOException;
+  }
+
+  private final List<ByteRange> ranges;
+  private final Opener opener;
+  private final String boundary;
+  private final String mime;
+  private final long total;
+
+  private int index = 0;
+  private InputStream header;
+  private InputStream body;
+  private long bodyRemaining = 0;
+  private boolean finished = false;
+
+  MultipartRangeStream(
+    List<ByteRange> ranges,
+    long total,
+    String mime,
+    String boundary,
+    Opener opener
+  ) {
+    this.ranges = ranges;
+    this.total = total;
+    this.mime = mime == null ? "application/octet-stream" : mime;
+    this.boundary = boundary;
+    this.opener = opener;
+  }
+
+  /**
+   * Exact number of bytes the stream will produce
+   *
+   * @return
+   */
+  long contentLength() {
+    long length = closing().length;
+    for (ByteRange range : ranges) {
+      length += partHeader(range).length + range.length();
+    }
+    return length;
+  }
+
+  private byte[] partHeader(ByteRange range) {
+    return (
+      "\r\n--" +
+      boundary +
+      "\r\nContent-Type: " +
+      mime +
+      "\r\nContent-Range: " +
+      range.contentRange(total) +
+      "\r\n\r\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private byte[] closing() {
+    return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return n == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    while (true) {
+      if (header != null) {
+        int n = header.read(b, off, len);
+        if (n != -1) {
+          return n;
+        }
+        header = null;
+      }
+
+      if (body != null) {
+        if (bodyRemaining > 0) {
+          int n = body.read(b, off, (int) Math.min(len, bodyRemaining));
+          if (n == -1) {
+            throw new IOException("Unexpected end of file");
+          }
+          bodyRemaining -= n;
+          return n;
+        }
+        body.close();
+        body = null;
+      }
+
+      if (finished) {
+        return -1;
+      }
+
+      if (index < ranges.size()) {
+        ByteRange range = ranges.get(index++);
+        header = new ByteArrayInputStream(partHeader(range));
+        body = opener.open(range.start);
+        bodyRemaining = range.length();
+      } else {
+        header = new ByteArrayInputStream(closing());
+        finished = true;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (body != null) {
+      body.close();
+      body = null;
+    }
+  }
+}
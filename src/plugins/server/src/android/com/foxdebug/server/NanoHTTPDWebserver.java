@@ -2,68 +2,924 @@ package com.foxdebug.server;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Base64;
 import android.util.Log;
 import androidx.documentfile.provider.DocumentFile;
 import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.Method;
-import java.net.URLConnection;
-import java.util.HashMap;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class NanoHTTPDWebserver extends NanoHTTPD {
 
-  public HashMap<String, Object> responses;
+  public static final long DEFAULT_RESPONSE_TIMEOUT = 60000;
+
+  static final Response.IStatus GATEWAY_TIMEOUT = new Response.IStatus() {
+    @Override
+    public String getDescription() {
+      return "504 Gateway Timeout";
+    }
+
+    @Override
+    public int getRequestStatus() {
+      return 504;
+    }
+  };
+
   public CallbackContext onRequestCallbackContext;
   Context context;
+  final int port;
+  long responseTimeout;
+  private PendingRequests pendingRequests = new PendingRequests(
+    PendingRequests.DEFAULT_MAX_PENDING
+  );
+  private final ConcurrentHashMap<String, ResponseStream> streams = new ConcurrentHashMap<String, ResponseStream>();
+  private final ConcurrentLinkedQueue<JSONObject> queuedRequests = new ConcurrentLinkedQueue<JSONObject>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private ScheduledExecutorService batchExecutor;
+  private long batchInterval = 0;
+  private long bodyMemoryLimit = RequestBody.DEFAULT_MEMORY_LIMIT;
+  private long maxBodySize = RequestBody.DEFAULT_MAX_SIZE;
+  private LiveReload liveReload;
+  private MimeTypes mimeTypes = new MimeTypes();
+  private ResponseCache responseCache = new ResponseCache(
+    ResponseCache.DEFAULT_MAX_SIZE
+  );
+  private List<String> watchRoots = Collections.emptyList();
+  private volatile List<StaticRoute> routes = Collections.emptyList();
+  private CompressionCache compressionCache;
+  private FileMetadataCache metadataCache = new FileMetadataCache(
+    FileMetadataCache.DEFAULT_CAPACITY,
+    FileMetadataCache.DEFAULT_TTL
+  );
+  private DirectoryListing directoryListing;
+  private BoundedAsyncRunner asyncRunner;
+  private boolean useNio = false;
+  private NioEngine nioEngine;
+  private int readTimeout = NanoHTTPD.SOCKET_READ_TIMEOUT;
+  private int keepAliveTimeout = NanoHTTPD.SOCKET_READ_TIMEOUT;
+  private final ThreadLocal<Socket> currentSocket = new ThreadLocal<Socket>();
+  private final ThreadLocal<Long> connectionQueueTime = new ThreadLocal<Long>();
+  private final ThreadLocal<ServerMetrics.Timer> currentTimer = new ThreadLocal<ServerMetrics.Timer>();
+  final ServerMetrics metrics = new ServerMetrics();
+
+  /**
+   * Client handler that remembers its socket, so a rejected connection can
+   * still be answered and keep-alive can be tuned per connection
+   */
+  class SocketClientHandler extends ClientHandler {
+
+    final Socket socket;
+    private final long createdAt = System.nanoTime();
+
+    SocketClientHandler(InputStream inputStream, Socket socket) {
+      super(inputStream, socket);
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      currentSocket.set(socket);
+      // time spent waiting for a worker, charged to the first request
+      connectionQueueTime.set(System.nanoTime() - createdAt);
+      try {
+        super.run();
+      } finally {
+        currentSocket.remove();
+        connectionQueueTime.remove();
+      }
+    }
+  }
 
   public NanoHTTPDWebserver(int port, Context context) {
+    this(port, context, DEFAULT_RESPONSE_TIMEOUT);
+  }
+
+  public NanoHTTPDWebserver(int port, Context context, long responseTimeout) {
     super(port);
+    this.port = port;
     this.context = context;
-    this.responses = new HashMap<String, Object>();
+    this.responseTimeout = responseTimeout;
+    this.directoryListing =
+      new DirectoryListing(
+        context,
+        DirectoryListing.DEFAULT_CAPACITY,
+        FileMetadataCache.DEFAULT_TTL
+      );
+  }
+
+  /**
+   * Delivers the JS response for a waiting request
+   *
+   * @param requestId
+   * @param response
+   * @return false if no request with this id is waiting (already answered or
+   * timed out)
+   */
+  public boolean completeRequest(String requestId, JSONObject response) {
+    return completeRequest(requestId, response, null);
+  }
+
+  /**
+   * Delivers the JS response for a waiting request
+   *
+   * @param requestId
+   * @param response
+   * @param body      raw response body replacing response.body, or null.
+   *                  A body sent with "bodyEncoding": "base64" is decoded
+   *                  into raw bytes as well.
+   * @return false if no request with this id is waiting (already answered or
+   * timed out)
+   */
+  public boolean completeRequest(
+    String requestId,
+    JSONObject response,
+    byte[] body
+  ) {
+    if (requestId == null || response == null) {
+      return false;
+    }
+    try {
+      if (body != null) {
+        response.put("body", body);
+      } else if ("base64".equals(response.optString("bodyEncoding"))) {
+        response.put(
+          "body",
+          Base64.decode(response.optString("body"), Base64.DEFAULT)
+        );
+      }
+    } catch (JSONException e) {
+      e.printStackTrace();
+    }
+
+    final String id = requestId;
+    ResponseStream stream = null;
+    if (response.optBoolean("stream")) {
+      // registered before waking the worker so writes right after send()
+      // find the stream; the worker gets it through the pending response,
+      // so an end() before the worker wakes doesn't lose it
+      stream =
+        new ResponseStream(
+          this.responseTimeout,
+          new Runnable() {
+            @Override
+            public void run() {
+              streams.remove(id);
+            }
+          }
+        );
+      this.streams.put(requestId, stream);
+    }
+    if (!this.pendingRequests.complete(requestId, response, stream)) {
+      this.streams.remove(requestId);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Depth of the pending-request table, for Server.pending
+   *
+   * @return
+   * @throws JSONException
+   */
+  public JSONObject getPendingStats() throws JSONException {
+    JSONObject stats = this.pendingRequests.toJSON();
+    stats.put("streams", this.streams.size());
+    return stats;
+  }
+
+  /**
+   * Appends a chunk to a streaming response
+   *
+   * @param requestId
+   * @param chunk
+   * @return false if there is no such stream or the client went away
+   */
+  public boolean writeStream(String requestId, byte[] chunk) {
+    ResponseStream stream = this.streams.get(requestId);
+    if (stream == null) {
+      return false;
+    }
+    if (!stream.write(chunk)) {
+      this.streams.remove(requestId);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Finishes a streaming response. The stream stays registered until the
+   * response has been sent and closed.
+   *
+   * @param requestId
+   * @return false if there is no such stream
+   */
+  public boolean endStream(String requestId) {
+    ResponseStream stream = this.streams.get(requestId);
+    if (stream == null) {
+      return false;
+    }
+    stream.end();
+    return true;
+  }
+
+  /**
+   * Applies the options passed to Server.start
+   * <p>
+   * { "routes": [...], "compress": true, "compressThreshold": 1024,
+   * "metadataTtl": 2000, "maxThreads": 16, "queueLength": 64,
+   * "readTimeout": 5000, "keepAliveTimeout": 5000, "batchRequests": 0,
+   * "bodyMemoryLimit": 65536, "maxBodySize": 67108864,
+   * "liveReload": { "debounce": 100, "watch": [...] }, "maxPending": 64,
+   * "cacheSize": 8388608, "mimeTypes": { "ext": "mime/type" },
+   * "engine": "thread" | "nio" }
+   *
+   * @param options
+   * @throws JSONException
+   */
+  public void configure(JSONObject options) throws JSONException {
+    if (options == null) {
+      options = new JSONObject();
+    }
+
+    if (this.liveReload != null) {
+      this.liveReload.stop();
+      this.liveReload = null;
+    }
+    JSONObject liveReloadOptions = options.optJSONObject("liveReload");
+    if (liveReloadOptions == null && options.optBoolean("liveReload")) {
+      liveReloadOptions = new JSONObject();
+    }
+    if (liveReloadOptions != null) {
+      List<String> watch = new ArrayList<String>();
+      JSONArray watchOption = liveReloadOptions.optJSONArray("watch");
+      if (watchOption != null) {
+        for (int i = 0; i < watchOption.length(); i++) {
+          watch.add(watchOption.getString(i));
+        }
+      }
+      this.watchRoots = watch;
+      this.liveReload =
+        new LiveReload(
+          liveReloadOptions.optLong("debounce", LiveReload.DEFAULT_DEBOUNCE),
+          new LiveReload.Listener() {
+            @Override
+            public void onChange(String fileUri) {
+              metadataCache.invalidate(fileUri);
+              directoryListing.invalidate(fileUri);
+            }
+          }
+        );
+    }
+
+    this.mimeTypes = new MimeTypes(options.optJSONObject("mimeTypes"));
+
+    setRoutes(options.optJSONArray("routes"));
+
+    this.pendingRequests =
+      new PendingRequests(
+        Math.max(
+          1,
+          options.optInt("maxPending", PendingRequests.DEFAULT_MAX_PENDING)
+        )
+      );
+
+    this.responseCache =
+      new ResponseCache(
+        options.optLong("cacheSize", ResponseCache.DEFAULT_MAX_SIZE)
+      );
+
+    this.readTimeout = options.optInt("readTimeout", this.readTimeout);
+    this.keepAliveTimeout =
+      options.optInt("keepAliveTimeout", this.keepAliveTimeout);
+    this.asyncRunner =
+      new BoundedAsyncRunner(
+        this.port,
+        Math.max(
+          1,
+          options.optInt("maxThreads", BoundedAsyncRunner.DEFAULT_MAX_THREADS)
+        ),
+        options.optInt("queueLength", BoundedAsyncRunner.DEFAULT_QUEUE_LENGTH)
+      );
+    setAsyncRunner(this.asyncRunner);
+    this.useNio = "nio".equals(options.optString("engine", "thread"));
+
+    this.bodyMemoryLimit =
+      options.optLong("bodyMemoryLimit", RequestBody.DEFAULT_MEMORY_LIMIT);
+    this.maxBodySize =
+      options.optLong("maxBodySize", RequestBody.DEFAULT_MAX_SIZE);
+
+    this.batchInterval = options.optLong("batchRequests", 0);
+    if (this.batchInterval > 0 && this.batchExecutor == null) {
+      this.batchExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    this.metadataCache =
+      new FileMetadataCache(
+        FileMetadataCache.DEFAULT_CAPACITY,
+        options.optLong("metadataTtl", FileMetadataCache.DEFAULT_TTL)
+      );
+    this.directoryListing =
+      new DirectoryListing(
+        this.context,
+        DirectoryListing.DEFAULT_CAPACITY,
+        options.optLong("metadataTtl", FileMetadataCache.DEFAULT_TTL)
+      );
+
+    if (options.optBoolean("compress", true)) {
+      this.compressionCache =
+        new CompressionCache(
+          new File(this.context.getCacheDir(), "server-gzip"),
+          options.optLong(
+            "compressThreshold",
+            CompressionCache.DEFAULT_THRESHOLD
+          ),
+          CompressionCache.DEFAULT_MAX_SIZE
+        );
+    } else {
+      this.compressionCache = null;
+    }
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (this.useNio) {
+      this.nioEngine = NioEngine.listen(this, this.port);
+    } else {
+      start(this.readTimeout);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (this.nioEngine != null) {
+      this.nioEngine.close(this);
+      this.nioEngine = null;
+    } else {
+      super.stop();
+    }
+    if (this.asyncRunner != null) {
+      this.asyncRunner.shutdown();
+    }
+    if (this.batchExecutor != null) {
+      this.batchExecutor.shutdownNow();
+    }
+    for (ResponseStream stream : this.streams.values()) {
+      stream.end();
+    }
+    this.streams.clear();
+    if (this.liveReload != null) {
+      this.liveReload.stop();
+    }
+  }
+
+  @Override
+  protected ClientHandler createClientHandler(
+    Socket finalAccept,
+    InputStream inputStream
+  ) {
+    try {
+      // NanoHTTPD writes the headers and the body separately; with Nagle a
+      // small body then waits for the client's delayed ACK, ~40 ms on every
+      // keep-alive request. The NIO engine sets this on accept as well.
+      finalAccept.setTcpNoDelay(true);
+    } catch (SocketException ignored) {}
+    return new SocketClientHandler(inputStream, finalAccept);
+  }
+
+  int getReadTimeout() {
+    return this.readTimeout;
+  }
+
+  int getKeepAliveTimeout() {
+    return this.keepAliveTimeout;
+  }
+
+  /**
+   * Queues a request of a connection owned by the NIO engine on this
+   * server's workers
+   *
+   * @param task
+   * @param socket
+   * @return false if the pool is full, the client got a 503
+   */
+  boolean submitNio(Runnable task, Socket socket) {
+    return this.asyncRunner.submit(task, socket);
+  }
+
+  /**
+   * Reads, serves and writes one request of a connection owned by the NIO
+   * engine. The session is kept on the connection across requests, as the
+   * default engine keeps it for the lifetime of its ClientHandler.
+   *
+   * @param connection
+   * @return true if the connection can wait for another request
+   */
+  boolean executeNio(NioEngine.Connection connection) {
+    Socket socket = connection.channel.socket();
+    currentSocket.set(socket);
+    connectionQueueTime.set(System.nanoTime() - connection.queuedAt);
+    try {
+      socket.setSoTimeout(this.readTimeout);
+      if (connection.session == null) {
+        connection.session =
+          new HTTPSession(
+            new DefaultTempFileManager(),
+            socket.getInputStream(),
+            socket.getOutputStream(),
+            socket.getInetAddress()
+          );
+      }
+      connection.session.execute();
+      return !socket.isClosed();
+    } catch (Exception e) {
+      // "NanoHttpd Shutdown", read timeout or client gone, as in ClientHandler
+      return false;
+    } finally {
+      currentSocket.remove();
+      connectionQueueTime.remove();
+    }
   }
 
-  private String getBodyText(IHTTPSession session) {
-    Map<String, String> files = new HashMap<String, String>();
+  /**
+   * Forgets cached file metadata, e.g. after the file was saved
+   *
+   * @param uriPrefix file URI prefix, null forgets everything
+   */
+  public void invalidateFiles(String uriPrefix) {
+    this.metadataCache.invalidate(uriPrefix);
+    this.directoryListing.invalidate(uriPrefix);
+  }
+
+  /**
+   * Drops cached handler responses
+   *
+   * @param pathPrefix URL path prefix, null drops everything
+   */
+  public void invalidate(String pathPrefix) {
+    this.responseCache.invalidate(pathPrefix);
+  }
+
+  /**
+   * Replaces the static route table. Routes are matched longest prefix first.
+   *
+   * @param routes [{prefix, root, index, fallback}]
+   * @throws JSONException
+   */
+  public void setRoutes(JSONArray routes) throws JSONException {
+    List<StaticRoute> list = new ArrayList<StaticRoute>();
+    if (routes != null) {
+      for (int i = 0; i < routes.length(); i++) {
+        list.add(StaticRoute.fromJSON(routes.getJSONObject(i)));
+      }
+    }
+    Collections.sort(
+      list,
+      new Comparator<StaticRoute>() {
+        @Override
+        public int compare(StaticRoute a, StaticRoute b) {
+          return b.prefix.length() - a.prefix.length();
+        }
+      }
+    );
+    this.routes = Collections.unmodifiableList(list);
+
+    LiveReload liveReload = this.liveReload;
+    if (liveReload != null) {
+      List<String> roots = new ArrayList<String>(this.watchRoots);
+      for (StaticRoute route : list) {
+        roots.add(route.root);
+      }
+      liveReload.watch(roots);
+    }
+  }
+
+  /**
+   * Tells live reload clients that files changed, for roots that can't be
+   * watched natively
+   *
+   * @param fileUris
+   */
+  public void notifyChanged(List<String> fileUris) {
+    for (String fileUri : fileUris) {
+      this.metadataCache.invalidate(fileUri);
+      this.directoryListing.invalidate(fileUri);
+    }
+    if (this.liveReload == null) {
+      return;
+    }
+    if (fileUris.isEmpty()) {
+      this.liveReload.reloadAll();
+    } else {
+      this.liveReload.notify(fileUris);
+    }
+  }
+
+  private Response serveLiveReload(IHTTPSession session) {
+    String path = session.getUri();
+    if (LiveReload.EVENTS_PATH.equals(path)) {
+      // the stream holds this worker until the page goes away, so it must
+      // not count against maxThreads
+      final BoundedAsyncRunner runner = this.asyncRunner;
+      if (!runner.detach()) {
+        Response res = newFixedLengthResponse(
+          Response.Status.SERVICE_UNAVAILABLE,
+          NanoHTTPD.MIME_PLAINTEXT,
+          "Too many live reload clients"
+        );
+        res.addHeader("Retry-After", "1");
+        return res;
+      }
+      Response res = newChunkedResponse(
+        Response.Status.OK,
+        "text/event-stream",
+        this.liveReload.connect(
+            new Runnable() {
+              @Override
+              public void run() {
+                runner.reattach();
+              }
+            }
+          )
+      );
+      res.addHeader("Cache-Control", "no-cache");
+      res.addHeader("Access-Control-Allow-Origin", "*");
+      return res;
+    }
+    if (LiveReload.CLIENT_PATH.equals(path)) {
+      Response res = newFixedLengthResponse(
+        Response.Status.OK,
+        "application/javascript",
+        LiveReload.CLIENT_SCRIPT
+      );
+      res.addHeader("Cache-Control", "no-cache");
+      return res;
+    }
+    return null;
+  }
+
+  /**
+   * Serves the request from the route table without involving JS
+   *
+   * @param session
+   * @return the response, or null if the request should go to the JS handler
+   */
+  private Response serveStaticRoute(IHTTPSession session) {
     Method method = session.getMethod();
-    if (Method.PUT.equals(method) || Method.POST.equals(method)) {
-      try {
-        session.parseBody(files);
-      } catch (IOException ioe) {
-        return "{}";
-      } catch (ResponseException re) {
-        return "{}";
+    if (!Method.GET.equals(method) && !Method.HEAD.equals(method)) {
+      return null;
+    }
+
+    String path = session.getUri();
+    for (StaticRoute route : this.routes) {
+      if (!route.matches(path)) {
+        continue;
+      }
+
+      String relative = route.relativePath(path);
+      if (relative == null) {
+        return newFixedLengthResponse(
+          Response.Status.FORBIDDEN,
+          NanoHTTPD.MIME_PLAINTEXT,
+          "Forbidden"
+        );
+      }
+
+      // the served path names the mime type, so the provider isn't asked
+      String served = relative;
+      RouteFile file = resolveRouteFile(route, relative);
+      if (file != null && file.directory) {
+        if (!path.endsWith("/")) {
+          // relative links of the index or listing resolve against the slash
+          return redirectToDirectory(session);
+        }
+        RouteFile directory = file;
+        file = null;
+        for (String name : route.index) {
+          RouteFile candidate = resolveRouteFile(route, relative + name);
+          if (candidate != null && !candidate.directory) {
+            file = candidate;
+            served = relative + name;
+            break;
+          }
+        }
+        if (file == null && route.listing) {
+          setRouteName("static:" + route.prefix);
+          return serveDirectory(session, directory.file);
+        }
+      }
+      if (
+        (file == null || file.directory) &&
+        route.fallback != null &&
+        isNavigation(session)
+      ) {
+        file = resolveRouteFile(route, route.fallback);
+        served = route.fallback;
       }
+      if (file == null || file.directory) {
+        return null;
+      }
+
+      setRouteName("static:" + route.prefix);
+      String mimeType = this.mimeTypes.lookup(served);
+      return serveFile(session.getHeaders(), file.file, mimeType);
     }
-    // get the POST body
-    return files.get("postData");
+    return null;
+  }
+
+  /**
+   * Whether the request is a page load rather than an asset, so a missing
+   * path can get the single-page app fallback instead of the wrong file
+   *
+   * @param session
+   * @return
+   */
+  private static boolean isNavigation(IHTTPSession session) {
+    String accept = session.getHeaders().get("accept");
+    if (accept != null && accept.contains("text/html")) {
+      return true;
+    }
+    String path = session.getUri();
+    return path.lastIndexOf('.') <= path.lastIndexOf('/');
+  }
+
+  private Response redirectToDirectory(IHTTPSession session) {
+    String query = session.getQueryParameterString();
+    Response res = newFixedLengthResponse(
+      Response.Status.TEMPORARY_REDIRECT,
+      NanoHTTPD.MIME_PLAINTEXT,
+      ""
+    );
+    res.addHeader(
+      "Location",
+      Uri.encode(session.getUri(), "/") +
+      "/" +
+      (query == null || query.isEmpty() ? "" : "?" + query)
+    );
+    return res;
+  }
+
+  /**
+   * Lists a directory as HTML, or as JSON when the client asks for it with
+   * an Accept header or "?format=json"
+   *
+   * @param session
+   * @param directory
+   * @return
+   */
+  private Response serveDirectory(IHTTPSession session, DocumentFile directory) {
+    String path = session.getUri();
+    if (!path.endsWith("/")) {
+      path += "/";
+    }
+    String query = session.getQueryParameterString();
+    String accept = session.getHeaders().get("accept");
+    boolean json =
+      (query != null && query.contains("format=json")) ||
+      (accept != null &&
+        accept.contains("application/json") &&
+        !accept.contains("text/html"));
+
+    Response res;
+    try {
+      List<DirectoryListing.Entry> entries = this.directoryListing.list(
+        directory
+      );
+      res =
+        json
+          ? newFixedLengthResponse(
+            Response.Status.OK,
+            "application/json; charset=utf-8",
+            DirectoryListing.toJSON(path, entries)
+          )
+          : newFixedLengthResponse(
+            Response.Status.OK,
+            "text/html; charset=utf-8",
+            DirectoryListing.toHTML(path, entries)
+          );
+    } catch (JSONException | RuntimeException e) {
+      Log.w("ServeFileError", "Unable to list " + directory.getUri(), e);
+      return newFixedLengthResponse(
+        Response.Status.INTERNAL_ERROR,
+        NanoHTTPD.MIME_PLAINTEXT,
+        "Unable to list directory"
+      );
+    }
+    res.addHeader("Cache-Control", "no-cache");
+    return res;
+  }
+
+  /**
+   * A file or directory below a route root
+   */
+  private static class RouteFile {
+
+    final DocumentFile file;
+    final boolean directory;
+
+    RouteFile(DocumentFile file, boolean directory) {
+      this.file = file;
+      this.directory = directory;
+    }
+  }
+
+  /**
+   * Resolves a path below a route root, answering from the metadata cache
+   * while it is fresh so revalidations don't reach the provider
+   *
+   * @param route
+   * @param relative path below the route root
+   * @return null if there is no such file or directory
+   */
+  private RouteFile resolveRouteFile(StaticRoute route, String relative) {
+    String key = route.root + relative;
+    FileMetadataCache.Resolved resolved = this.metadataCache.getPath(key);
+    if (resolved != null) {
+      if (resolved.uri == null) {
+        return null;
+      }
+      Uri uri = Uri.parse(resolved.uri);
+      return new RouteFile(
+        "file".equals(uri.getScheme())
+          ? DocumentFile.fromFile(new File(uri.getPath()))
+          : DocumentFile.fromSingleUri(this.context, uri),
+        resolved.directory
+      );
+    }
+
+    RouteFile file = findRouteFile(route, relative);
+    this.metadataCache.putPath(
+        key,
+        file == null ? null : file.file.getUri().toString(),
+        file != null && file.directory
+      );
+    return file;
+  }
+
+  private RouteFile findRouteFile(StaticRoute route, String relative) {
+    if (route.root.startsWith("file:///")) {
+      File root = new File(Uri.parse(route.root).getPath());
+      File file = relative.isEmpty() ? root : new File(root, relative);
+      if (!file.exists()) {
+        return null;
+      }
+      return new RouteFile(DocumentFile.fromFile(file), file.isDirectory());
+    }
+    return resolveDocument(Uri.parse(route.root), relative);
+  }
+
+  /**
+   * Resolves a path below a content:// tree. Most providers (external
+   * storage, file managers) use the path as document id, so the child's URI
+   * is built directly and checked with a single query. Other providers are
+   * walked with findFile, one children query per segment.
+   *
+   * @param tree
+   * @param relative
+   * @return
+   */
+  private RouteFile resolveDocument(Uri tree, String relative) {
+    List<String> segments = new ArrayList<String>();
+    for (String segment : relative.split("/")) {
+      if (!segment.isEmpty()) {
+        segments.add(segment);
+      }
+    }
+    String rootId = DocumentsContract.getTreeDocumentId(tree);
+
+    Uri uri = DocumentsContract.buildDocumentUriUsingTree(
+      tree,
+      childDocumentId(rootId, segments, segments.size())
+    );
+    Cursor cursor = null;
+    try {
+      cursor =
+        this.context.getContentResolver()
+          .query(
+            uri,
+            new String[] {
+              DocumentsContract.Document.COLUMN_MIME_TYPE,
+              DocumentsContract.Document.COLUMN_SIZE,
+              DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            },
+            null,
+            null,
+            null
+          );
+      if (cursor != null && cursor.moveToFirst()) {
+        boolean directory = DocumentsContract.Document.MIME_TYPE_DIR.equals(
+          cursor.getString(0)
+        );
+        if (!directory) {
+          // serveFile() then finds the length and ETag without a query
+          this.metadataCache.put(
+              uri.toString(),
+              cursor.isNull(1) ? 0 : cursor.getLong(1),
+              cursor.isNull(2) ? 0 : cursor.getLong(2),
+              null
+            );
+        }
+        return new RouteFile(
+          DocumentFile.fromSingleUri(this.context, uri),
+          directory
+        );
+      }
+    } catch (Exception e) {
+      // missing, or the provider's ids aren't paths
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+
+    DocumentFile file = DocumentFile.fromTreeUri(this.context, tree);
+    for (int i = 0; i < segments.size() && file != null; i++) {
+      file = file.findFile(segments.get(i));
+      if (
+        i == 0 &&
+        segments.size() > 1 &&
+        file != null &&
+        DocumentsContract.getDocumentId(file.getUri())
+          .equals(childDocumentId(rootId, segments, 1))
+      ) {
+        // ids are paths after all, the direct lookup missed for real
+        return null;
+      }
+    }
+    return file == null ? null : new RouteFile(file, file.isDirectory());
+  }
+
+  private static String childDocumentId(
+    String rootId,
+    List<String> segments,
+    int depth
+  ) {
+    StringBuilder id = new StringBuilder(rootId);
+    for (int i = 0; i < depth; i++) {
+      // "primary:" is the volume root, "primary:dir" a directory on it
+      if (id.length() > 0 && id.charAt(id.length() - 1) != ':') {
+        id.append('/');
+      }
+      id.append(segments.get(i));
+    }
+    return id.toString();
   }
 
   /**
    * Create a request object
    * <p>
-   * [ "requestId": requestUUID, " body": request.jsonObject ?? "", " headers":
-   * request.headers, " method": request.method, " path": request.url.path, "
-   * query": request.url.query ?? "" ]
+   * [ "requestId": requestUUID, " body": request.jsonObject ?? "", " bodyFile":
+   * file URI of a large or binary body, " bodyLength": body length, "
+   * headers": request.headers, " method": request.method, " path":
+   * request.url.path, " query": request.url.query ?? "" ]
    *
    * @param session
+   * @param body
    * @return
    */
-  private JSONObject createJSONRequest(String requestId, IHTTPSession session)
-    throws JSONException {
+  private JSONObject createJSONRequest(
+    String requestId,
+    IHTTPSession session,
+    RequestBody body
+  ) throws JSONException {
     JSONObject jsonRequest = new JSONObject();
     jsonRequest.put("requestId", requestId);
-    jsonRequest.put("body", this.getBodyText(session));
+    jsonRequest.put("body", body.text);
+    if (body.file != null) {
+      jsonRequest.put("bodyFile", Uri.fromFile(body.file).toString());
+    }
+    jsonRequest.put("bodyLength", body.length);
     jsonRequest.put("headers", session.getHeaders());
     jsonRequest.put("method", session.getMethod());
     jsonRequest.put("path", session.getUri());
@@ -83,15 +939,26 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
     }
   }
 
-  private Response newFixedFileResponse(DocumentFile file, String mime)
-    throws FileNotFoundException, IOException {
+  /**
+   * @param file
+   * @param mime
+   * @param length length from the metadata the headers were built from
+   * @return
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  private Response newFixedFileResponse(
+    DocumentFile file,
+    String mime,
+    long length
+  ) throws FileNotFoundException, IOException {
     Response res;
     res =
       newFixedLengthResponse(
         Response.Status.OK,
         mime,
-        getInputStream(file),
-        (int) file.length()
+        getInputStream(file, 0),
+        length
       );
     res.addHeader("Accept-Ranges", "bytes");
     return res;
@@ -104,28 +971,11 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
   ) {
     Response res;
     try {
-      // Calculate etag
-      long fileLen = file.length();
-      String path = file.getUri().toString();
-      String etag = Integer.toHexString(
-        (path + file.lastModified() + "" + fileLen).hashCode()
-      );
-
-      // Support (simple) skipping:
-      long startFrom = 0;
-      long endAt = -1;
-      String range = header.get("range");
-      if (range != null) {
-        if (range.startsWith("bytes=")) {
-          range = range.substring("bytes=".length());
-          int minus = range.indexOf('-');
-          try {
-            if (minus > 0) {
-              startFrom = Long.parseLong(range.substring(0, minus));
-              endAt = Long.parseLong(range.substring(minus + 1));
-            }
-          } catch (NumberFormatException ignored) {}
-        }
+      FileMetadataCache.Entry metadata = metadataCache.get(file, mime);
+      long fileLen = metadata.length;
+      String etag = metadata.etag;
+      if (metadata.mime != null) {
+        mime = metadata.mime;
       }
 
       // get if-range header. If present, it must match etag or else we
@@ -134,90 +984,132 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
       boolean headerIfRangeMissingOrMatching =
         (ifRange == null || etag.equals(ifRange));
 
+      // the gzip variant has an ETag of its own, a client holding either
+      // representation is up to date
+      String gzipEtag = etag + "-gzip";
       String ifNoneMatch = header.get("if-none-match");
-      boolean headerIfNoneMatchPresentAndMatching =
-        ifNoneMatch != null &&
-        ("*".equals(ifNoneMatch) || ifNoneMatch.equals(etag));
+      String matchedEtag = matchETag(ifNoneMatch, etag, gzipEtag);
+      boolean headerIfNoneMatchPresentAndMatching = matchedEtag != null;
 
-      if (
-        headerIfRangeMissingOrMatching &&
-        range != null &&
-        startFrom >= 0 &&
-        startFrom < fileLen
-      ) {
-        // range request that matches current etag
-        // and the startFrom of the range is satisfiable
-        if (headerIfNoneMatchPresentAndMatching) {
-          // range request that matches current etag
-          // and the startFrom of the range is satisfiable
-          // would return range from file
-          // respond with not-modified
-          res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-          res.addHeader("ETag", etag);
-        } else {
-          if (endAt < 0) {
-            endAt = fileLen - 1;
-          }
-          long newLen = endAt - startFrom + 1;
-          if (newLen < 0) {
-            newLen = 0;
-          }
+      // null when there is no (valid, applicable) range request,
+      // empty when none of the requested ranges is satisfiable
+      List<ByteRange> ranges = null;
+      if (headerIfRangeMissingOrMatching) {
+        ranges = ByteRange.parse(header.get("range"), fileLen);
+      }
 
-          InputStream is = getInputStream(file);
-          is.skip(startFrom);
+      if (ranges != null && ranges.isEmpty()) {
+        // return the size of the file
+        // 4xx responses are not trumped by if-none-match
+        res =
+          newFixedLengthResponse(
+            Response.Status.RANGE_NOT_SATISFIABLE,
+            NanoHTTPD.MIME_PLAINTEXT,
+            ""
+          );
+        res.addHeader("Content-Range", "bytes */" + fileLen);
+        res.addHeader("ETag", etag);
+      } else if (headerIfNoneMatchPresentAndMatching) {
+        // would return the file or a range of it, which the client
+        // already has: respond with not-modified
+        res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
+        res.addHeader("ETag", matchedEtag);
+      } else if (ranges == null) {
+        // supply the file, compressed if the client accepts it
+        boolean compressible =
+          compressionCache != null &&
+          compressionCache.shouldCompress(mime, fileLen);
+        boolean inject =
+          liveReload != null && mime != null && mime.startsWith("text/html");
+        File compressed = null;
+        if (
+          !inject &&
+          compressible &&
+          CompressionCache.acceptsGzip(header.get("accept-encoding"))
+        ) {
+          try {
+            compressed =
+              compressionCache.get(
+                file.getUri().toString(),
+                metadata.lastModified,
+                fileLen,
+                getInputStream(file, 0)
+              );
+          } catch (IOException e) {
+            Log.w("ServeFileError", "Compression failed", e);
+          }
+        }
 
+        if (inject) {
+          byte[] tag = LiveReload.CLIENT_TAG.getBytes(StandardCharsets.UTF_8);
           res =
             newFixedLengthResponse(
-              Response.Status.PARTIAL_CONTENT,
+              Response.Status.OK,
               mime,
-              is,
-              newLen
+              new SequenceInputStream(
+                getInputStream(file, 0),
+                new ByteArrayInputStream(tag)
+              ),
+              fileLen + tag.length
             );
-          res.addHeader("Accept-Ranges", "bytes");
-          res.addHeader("Content-Length", "" + newLen);
-
-          String contentRange =
-            "bytes " + startFrom + "-" + endAt + "/" + fileLen;
-          res.addHeader("Content-Range", contentRange);
-          res.addHeader("ETag", etag);
-        }
-      } else {
-        if (
-          headerIfRangeMissingOrMatching &&
-          range != null &&
-          startFrom >= fileLen
-        ) {
-          // return the size of the file
-          // 4xx responses are not trumped by if-none-match
+          res.addHeader("Content-Length", "" + (fileLen + tag.length));
+        } else if (compressed != null) {
           res =
             newFixedLengthResponse(
-              Response.Status.RANGE_NOT_SATISFIABLE,
-              NanoHTTPD.MIME_PLAINTEXT,
-              ""
+              Response.Status.OK,
+              mime,
+              new FileInputStream(compressed),
+              compressed.length()
             );
-          res.addHeader("Content-Range", "bytes */" + fileLen);
-          res.addHeader("ETag", etag);
-        } else if (range == null && headerIfNoneMatchPresentAndMatching) {
-          // full-file-fetch request
-          // would return entire file
-          // respond with not-modified
-          res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-          res.addHeader("ETag", etag);
-        } else if (
-          !headerIfRangeMissingOrMatching && headerIfNoneMatchPresentAndMatching
-        ) {
-          // range request that doesn't match current etag
-          // would return entire (different) file
-          // respond with not-modified
-
-          res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-          res.addHeader("ETag", etag);
+          res.addHeader("Content-Encoding", "gzip");
+          res.addHeader("Content-Length", "" + compressed.length());
         } else {
-          // supply the file
-          res = newFixedFileResponse(file, mime);
+          res = newFixedFileResponse(file, mime, fileLen);
           res.addHeader("Content-Length", "" + fileLen);
-          res.addHeader("ETag", etag);
         }
+        if (compressible) {
+          res.addHeader("Vary", "Accept-Encoding");
+        }
+        res.addHeader("ETag", compressed != null ? gzipEtag : etag);
+      } else if (ranges.size() == 1) {
+        ByteRange byteRange = ranges.get(0);
+        res =
+          newFixedLengthResponse(
+            Response.Status.PARTIAL_CONTENT,
+            mime,
+            getInputStream(file, byteRange.start),
+            byteRange.length()
+          );
+        res.addHeader("Accept-Ranges", "bytes");
+        res.addHeader("Content-Length", "" + byteRange.length());
+        res.addHeader("Content-Range", byteRange.contentRange(fileLen));
+        res.addHeader("ETag", etag);
+      } else {
+        final DocumentFile source = file;
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        MultipartRangeStream body = new MultipartRangeStream(
+          ranges,
+          fileLen,
+          mime,
+          boundary,
+          new MultipartRangeStream.Opener() {
+            @Override
+            public InputStream open(long offset) throws IOException {
+              return getInputStream(source, offset);
+            }
+          }
+        );
+        long contentLength = body.contentLength();
+        res =
+          newFixedLengthResponse(
+            Response.Status.PARTIAL_CONTENT,
+            "multipart/byteranges; boundary=" + boundary,
+            body,
+            contentLength
+          );
+        res.addHeader("Accept-Ranges", "bytes");
+        res.addHeader("Content-Length", "" + contentLength);
+        res.addHeader("ETag", etag);
       }
     } catch (Exception e) {
       Log.d("ServeFileError", e.getMessage());
@@ -238,40 +1130,371 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
     return res;
   }
 
+  /**
+   * Checks an If-None-Match header against the ETags of a file
+   *
+   * @param ifNoneMatch header value, may list several ETags
+   * @param etags       current ETags of the file's representations
+   * @return the matching ETag, or null if none matches
+   */
+  private static String matchETag(String ifNoneMatch, String... etags) {
+    if (ifNoneMatch == null) {
+      return null;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if ("*".equals(candidate)) {
+        return etags[0];
+      }
+      for (String etag : etags) {
+        if (etag.equals(candidate)) {
+          return etag;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Keeps NanoHTTPD's on-the-fly gzip away from responses that are already
+   * encoded or only carry a byte range of the representation, and applies
+   * the compress and compressThreshold options to the rest. Files carry an
+   * explicit Content-Length and are never gzipped on the fly: serveFile()
+   * already picked the cached gzip variant or chose not to compress.
+   */
+  @Override
+  protected boolean useGzipWhenAccepted(Response r) {
+    InputStream data = r.getData();
+    if (data instanceof ServerMetrics.Tracked) {
+      data = ((ServerMetrics.Tracked) data).source();
+    }
+    // streamed bodies must not sit in the gzip buffer
+    if (
+      r.getHeader("content-encoding") != null ||
+      Response.Status.PARTIAL_CONTENT.equals(r.getStatus()) ||
+      data instanceof ResponseStream ||
+      compressionCache == null ||
+      r.getHeader("content-length") != null ||
+      !(data instanceof ByteArrayInputStream)
+    ) {
+      return false;
+    }
+    int length = ((ByteArrayInputStream) data).available();
+    if (!compressionCache.shouldCompress(r.getMimeType(), length)) {
+      return false;
+    }
+    return super.useGzipWhenAccepted(r);
+  }
+
+  /**
+   * Hands a request to the JS handler. In batch mode requests are queued and
+   * flushed as one JSON array per batch interval.
+   *
+   * @param jsonRequest
+   * @param binaryBody  raw request body sent alongside, or null
+   */
+  private void notifyRequest(JSONObject jsonRequest, byte[] binaryBody) {
+    CallbackContext callback = this.onRequestCallbackContext;
+    if (callback == null) {
+      return;
+    }
+    // a binary body can't ride along in a JSON batch, so it skips the queue
+    if (
+      binaryBody != null ||
+      this.batchExecutor == null ||
+      this.batchInterval <= 0
+    ) {
+      PluginResult pluginResult;
+      if (binaryBody != null) {
+        // a multipart result, JS gets (request, ArrayBuffer) as arguments
+        List<PluginResult> parts = new ArrayList<PluginResult>();
+        parts.add(new PluginResult(PluginResult.Status.OK, jsonRequest));
+        parts.add(new PluginResult(PluginResult.Status.OK, binaryBody));
+        pluginResult = new PluginResult(PluginResult.Status.OK, parts);
+      } else {
+        pluginResult = new PluginResult(PluginResult.Status.OK, jsonRequest);
+      }
+      pluginResult.setKeepCallback(true);
+      callback.sendPluginResult(pluginResult);
+      return;
+    }
+
+    this.queuedRequests.add(jsonRequest);
+    if (this.flushScheduled.compareAndSet(false, true)) {
+      this.batchExecutor.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              flushRequests();
+            }
+          },
+          this.batchInterval,
+          TimeUnit.MILLISECONDS
+        );
+    }
+  }
+
+  private void flushRequests() {
+    this.flushScheduled.set(false);
+    JSONArray batch = new JSONArray();
+    JSONObject request;
+    while ((request = this.queuedRequests.poll()) != null) {
+      batch.put(request);
+    }
+    if (batch.length() == 0) {
+      return;
+    }
+    CallbackContext callback = this.onRequestCallbackContext;
+    if (callback == null) {
+      return;
+    }
+    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, batch);
+    pluginResult.setKeepCallback(true);
+    callback.sendPluginResult(pluginResult);
+  }
+
   @Override
   public Response serve(IHTTPSession session) {
-    String requestUUID = UUID.randomUUID().toString();
+    ServerMetrics.Timer timer = new ServerMetrics.Timer();
+    Long queueTime = connectionQueueTime.get();
+    if (queueTime != null) {
+      timer.queue = queueTime;
+      connectionQueueTime.remove();
+    }
 
-    PluginResult pluginResult = null;
+    Response response;
+    currentTimer.set(timer);
     try {
-      pluginResult =
-        new PluginResult(
-          PluginResult.Status.OK,
-          this.createJSONRequest(requestUUID, session)
+      response = handle(session);
+    } finally {
+      currentTimer.remove();
+    }
+    if (response == null) {
+      response =
+        newFixedLengthResponse(
+          Response.Status.INTERNAL_ERROR,
+          NanoHTTPD.MIME_PLAINTEXT,
+          "Internal Server Error"
         );
-    } catch (JSONException e) {
-      e.printStackTrace();
     }
-    pluginResult.setKeepCallback(true);
-    this.onRequestCallbackContext.sendPluginResult(pluginResult);
 
-    while (!this.responses.containsKey(requestUUID)) {
+    // the socket timeout now bounds the wait for the next request
+    if (this.keepAliveTimeout <= 0) {
+      response.addHeader("Connection", "close");
+    } else {
+      Socket socket = currentSocket.get();
+      if (socket != null) {
+        try {
+          socket.setSoTimeout(this.keepAliveTimeout);
+        } catch (SocketException ignored) {}
+      }
+    }
+
+    if (response.getData() != null) {
+      response.setData(metrics.new Tracked(response.getData(), timer));
+    } else {
+      metrics.record(timer, 0);
+    }
+    return response;
+  }
+
+  private void setRouteName(String name) {
+    ServerMetrics.Timer timer = currentTimer.get();
+    if (timer != null) {
+      timer.route = name;
+    }
+  }
+
+  private Response handle(IHTTPSession session) {
+    if (ServerMetrics.PATH.equals(session.getUri())) {
+      setRouteName("metrics");
       try {
-        Thread.sleep(1);
-      } catch (InterruptedException e) {
+        Response res = newFixedLengthResponse(
+          Response.Status.OK,
+          "application/json",
+          this.metrics.toJSON().toString()
+        );
+        res.addHeader("Cache-Control", "no-cache");
+        return res;
+      } catch (JSONException e) {
+        return null;
+      }
+    }
+
+    if (this.liveReload != null) {
+      Response live = serveLiveReload(session);
+      if (live != null) {
+        setRouteName("livereload");
+        return live;
+      }
+    }
+
+    Response routed = serveStaticRoute(session);
+    if (routed != null) {
+      return routed;
+    }
+
+    JSONObject cached = this.responseCache.get(session);
+    if (cached != null) {
+      setRouteName("handler:cache");
+      try {
+        Response res = newBodyResponse(cached);
+        res.addHeader("X-Cache", "HIT");
+        return res;
+      } catch (JSONException e) {
         e.printStackTrace();
       }
     }
 
-    JSONObject responseObject = (JSONObject) this.responses.get(requestUUID);
+    RequestBody body;
+    try {
+      body =
+        RequestBody.read(
+          session,
+          new File(this.context.getCacheDir(), "server-bodies"),
+          this.bodyMemoryLimit,
+          this.maxBodySize,
+          // batches are plain JSON, so binary bodies can't ride along
+          this.batchInterval <= 0
+        );
+    } catch (ResponseException e) {
+      // the unread body would be parsed as the next request
+      Response res = newFixedLengthResponse(
+        e.getStatus(),
+        NanoHTTPD.MIME_PLAINTEXT,
+        e.getMessage()
+      );
+      res.addHeader("Connection", "close");
+      return res;
+    } catch (IOException e) {
+      Response res = newFixedLengthResponse(
+        Response.Status.BAD_REQUEST,
+        NanoHTTPD.MIME_PLAINTEXT,
+        e.getMessage()
+      );
+      res.addHeader("Connection", "close");
+      return res;
+    }
+
+    setRouteName("handler");
+    try {
+      return forwardRequest(session, body);
+    } finally {
+      // the handler has answered, so it no longer needs the spilled body
+      body.delete();
+    }
+  }
+
+  private Response forwardRequest(IHTTPSession session, RequestBody body) {
+    String requestUUID = UUID.randomUUID().toString();
+
+    JSONObject jsonRequest = null;
+    try {
+      jsonRequest = this.createJSONRequest(requestUUID, session, body);
+    } catch (JSONException e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    if (this.onRequestCallbackContext == null) {
+      Response res = newFixedLengthResponse(
+        Response.Status.SERVICE_UNAVAILABLE,
+        NanoHTTPD.MIME_PLAINTEXT,
+        "No request handler"
+      );
+      res.addHeader("Retry-After", "1");
+      return res;
+    }
+
+    // Register before notifying JS so a fast send() can't miss the entry
+    PendingResponse pending = this.pendingRequests.register(requestUUID);
+    if (pending == null) {
+      Response res = newFixedLengthResponse(
+        Response.Status.SERVICE_UNAVAILABLE,
+        NanoHTTPD.MIME_PLAINTEXT,
+        "Too many pending requests"
+      );
+      res.addHeader("Retry-After", "1");
+      return res;
+    }
+
+    JSONObject responseObject = null;
+    long waitStart = System.nanoTime();
+    try {
+      notifyRequest(jsonRequest, body.bytes);
+      responseObject = this.pendingRequests.await(pending, this.responseTimeout);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      // e.g. the batch executor was shut down by stop()
+      e.printStackTrace();
+      return newFixedLengthResponse(
+        Response.Status.SERVICE_UNAVAILABLE,
+        NanoHTTPD.MIME_PLAINTEXT,
+        "Request handler unavailable"
+      );
+    } finally {
+      this.pendingRequests.release(requestUUID);
+      ServerMetrics.Timer timer = currentTimer.get();
+      if (timer != null) {
+        timer.handler = System.nanoTime() - waitStart;
+      }
+    }
+
+    if (responseObject == null) {
+      return newFixedLengthResponse(
+        GATEWAY_TIMEOUT,
+        NanoHTTPD.MIME_PLAINTEXT,
+        "Request handler did not respond in time"
+      );
+    }
+
     Response response = null;
 
+    if (responseObject.optBoolean("stream")) {
+      setRouteName("handler:stream");
+      ResponseStream stream = pending.stream();
+      if (stream == null) {
+        return null;
+      }
+      try {
+        response =
+          newChunkedResponse(
+            Response.Status.lookup(responseObject.optInt("status", 200)),
+            getContentType(responseObject),
+            stream
+          );
+        JSONObject headers = getJSONObject(responseObject, "headers");
+        if (headers != null) {
+          Iterator<String> keys = headers.keys();
+          while (keys.hasNext()) {
+            String key = keys.next();
+            response.addHeader(key, headers.getString(key));
+          }
+        }
+      } catch (JSONException e) {
+        e.printStackTrace();
+      }
+      return response;
+    }
+
     if (responseObject.has("path")) {
+      setRouteName("handler:file");
       try {
         String path = responseObject.getString("path");
         DocumentFile file = getFile(path);
-        String mimeType = URLConnection.guessContentTypeFromName(path);
+        String mimeType = this.mimeTypes.lookup(path);
         Response res = serveFile(session.getHeaders(), file, mimeType);
+        // a directory can't be opened; only then is the provider asked, so
+        // plain files keep being served from cached metadata
+        if (
+          file != null &&
+          (Response.Status.FORBIDDEN.equals(res.getStatus()) ||
+            Response.Status.NOT_FOUND.equals(res.getStatus())) &&
+          file.isDirectory()
+        ) {
+          res = serveDirectory(session, file);
+        }
         JSONObject headers = getJSONObject(responseObject, "headers");
         // JSONObject headers = responseObject.getJSONObject("headers");
         if (headers != null) {
@@ -291,21 +1514,8 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
       return response;
     } else {
       try {
-        response =
-          newFixedLengthResponse(
-            Response.Status.lookup(responseObject.getInt("status")),
-            getContentType(responseObject),
-            responseObject.getString("body")
-          );
-
-        Iterator<?> keys = responseObject.getJSONObject("headers").keys();
-        while (keys.hasNext()) {
-          String key = (String) keys.next();
-          response.addHeader(
-            key,
-            responseObject.getJSONObject("headers").getString(key)
-          );
-        }
+        response = newBodyResponse(responseObject);
+        this.responseCache.put(session, responseObject);
       } catch (JSONException e) {
         e.printStackTrace();
       }
@@ -313,6 +1523,51 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
     }
   }
 
+  /**
+   * Builds the response for a {status, headers, body} response object
+   *
+   * @param responseObject
+   * @return
+   * @throws JSONException
+   */
+  private Response newBodyResponse(JSONObject responseObject)
+    throws JSONException {
+    String contentType = getContentType(responseObject);
+    Object rawBody = responseObject.get("body");
+    Response response;
+    if (rawBody instanceof byte[]) {
+      byte[] bytes = (byte[]) rawBody;
+      response =
+        newFixedLengthResponse(
+          Response.Status.lookup(responseObject.getInt("status")),
+          contentType,
+          new ByteArrayInputStream(bytes),
+          bytes.length
+        );
+    } else {
+      String body = responseObject.getString("body");
+      if (this.liveReload != null && contentType.startsWith("text/html")) {
+        body += LiveReload.CLIENT_TAG;
+      }
+      response =
+        newFixedLengthResponse(
+          Response.Status.lookup(responseObject.getInt("status")),
+          contentType,
+          body
+        );
+    }
+
+    Iterator<?> keys = responseObject.getJSONObject("headers").keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      response.addHeader(
+        key,
+        responseObject.getJSONObject("headers").getString(key)
+      );
+    }
+    return response;
+  }
+
   private DocumentFile getFile(String filePath) {
     Uri fileUri = Uri.parse(filePath);
     DocumentFile documentFile = null;
@@ -327,11 +1582,59 @@ public class NanoHTTPDWebserver extends NanoHTTPD {
     return documentFile;
   }
 
-  private InputStream getInputStream(DocumentFile file)
+  /**
+   * Opens the file positioned at the given offset. Plain files are opened
+   * directly and seeked through their FileChannel, other documents go through
+   * the ContentResolver and are skipped forward.
+   *
+   * @param file
+   * @param offset
+   * @return
+   * @throws FileNotFoundException
+   * @throws IOException
+   */
+  private InputStream getInputStream(DocumentFile file, long offset)
+    throws FileNotFoundException, IOException {
+    long start = System.nanoTime();
+    try {
+      return openInputStream(file, offset);
+    } finally {
+      ServerMetrics.Timer timer = currentTimer.get();
+      if (timer != null) {
+        timer.fileOpen = Math.max(0, timer.fileOpen) + System.nanoTime() - start;
+      }
+    }
+  }
+
+  private InputStream openInputStream(DocumentFile file, long offset)
     throws FileNotFoundException, IOException {
     Uri uri = file.getUri();
+    if ("file".equals(uri.getScheme())) {
+      FileInputStream fis = new FileInputStream(uri.getPath());
+      if (offset > 0) {
+        FileChannel channel = fis.getChannel();
+        channel.position(offset);
+      }
+      return fis;
+    }
+
     ContentResolver contentResolver = context.getContentResolver();
-    return contentResolver.openInputStream(uri);
+    InputStream is = contentResolver.openInputStream(uri);
+    if (is == null) {
+      throw new FileNotFoundException(uri.toString());
+    }
+    long remaining = offset;
+    while (remaining > 0) {
+      long skipped = is.skip(remaining);
+      if (skipped <= 0) {
+        if (is.read() == -1) {
+          break;
+        }
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+    return is;
   }
 
   private JSONObject getJSONObject(JSONObject ob, String key) {
@@ -0,0 +1,308 @@
+package com.foxdebug.server;
+
+import android.util.Log;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector-based connection engine shared by every server started with
+ * "engine": "nio". One selector thread accepts on all ports and parks idle
+ * keep-alive connections; a connection only occupies a worker of its server
+ * while a request is being read, handled and written, using the same
+ * NanoHTTPD session and serve() as the default engine.
+ */
+class NioEngine implements Runnable {
+
+  private static final String TAG = "NioEngine";
+  private static NioEngine instance;
+
+  /**
+   * Connection owned by the engine while idle
+   */
+  static class Connection {
+
+    final SocketChannel channel;
+    final NanoHTTPDWebserver server;
+    IHTTPSession session;
+    long lastActive = System.currentTimeMillis();
+    long queuedAt;
+    boolean served = false;
+
+    Connection(SocketChannel channel, NanoHTTPDWebserver server) {
+      this.channel = channel;
+      this.server = server;
+    }
+
+    void close() {
+      try {
+        channel.close();
+      } catch (IOException ignored) {}
+    }
+  }
+
+  private final Selector selector;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private final Map<NanoHTTPDWebserver, ServerSocketChannel> listeners = new HashMap<NanoHTTPDWebserver, ServerSocketChannel>();
+  private volatile boolean running = true;
+
+  private NioEngine() throws IOException {
+    this.selector = Selector.open();
+    Thread thread = new Thread(this, "Server:nio");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Starts accepting connections for the server, starting the engine thread
+   * if needed
+   *
+   * @param server
+   * @param port
+   * @return the engine the server was registered with
+   * @throws IOException
+   */
+  static synchronized NioEngine listen(NanoHTTPDWebserver server, int port)
+    throws IOException {
+    if (instance == null || !instance.running) {
+      instance = new NioEngine();
+    }
+    instance.bind(server, port);
+    return instance;
+  }
+
+  private void bind(final NanoHTTPDWebserver server, int port)
+    throws IOException {
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.socket().setReuseAddress(true);
+      channel.socket().bind(new InetSocketAddress(port));
+      channel.configureBlocking(false);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    listeners.put(server, channel);
+    submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            channel.register(selector, SelectionKey.OP_ACCEPT, server);
+          } catch (IOException e) {
+            Log.e(TAG, "Unable to listen", e);
+          }
+        }
+      }
+    );
+  }
+
+  /**
+   * Stops accepting for the server and closes its idle connections. The
+   * engine thread exits when no server is left.
+   *
+   * @param server
+   */
+  void close(final NanoHTTPDWebserver server) {
+    final boolean last;
+    synchronized (NioEngine.class) {
+      ServerSocketChannel channel = listeners.remove(server);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ignored) {}
+      }
+      last = listeners.isEmpty();
+      if (last) {
+        running = false;
+      }
+    }
+    submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (
+              attachment instanceof Connection &&
+              (last || ((Connection) attachment).server == server)
+            ) {
+              key.cancel();
+              ((Connection) attachment).close();
+            }
+          }
+        }
+      }
+    );
+  }
+
+  private void submit(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running || !tasks.isEmpty()) {
+        selector.select(1000);
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+
+        List<Connection> readable = new ArrayList<Connection>();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept(key);
+          } else if (key.isReadable()) {
+            key.cancel();
+            readable.add((Connection) key.attachment());
+          }
+        }
+
+        if (!readable.isEmpty()) {
+          // flush the cancelled keys so the channels can block in workers
+          selector.selectNow();
+          for (Connection connection : readable) {
+            dispatch(connection);
+          }
+        }
+
+        closeIdle();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Selector failed", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof Connection) {
+          ((Connection) key.attachment()).close();
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException ignored) {}
+    }
+  }
+
+  private void accept(SelectionKey key) {
+    ServerSocketChannel server = (ServerSocketChannel) key.channel();
+    NanoHTTPDWebserver webserver = (NanoHTTPDWebserver) key.attachment();
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (IOException e) {
+        return;
+      }
+      if (channel == null) {
+        return;
+      }
+      Connection connection = new Connection(channel, webserver);
+      try {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSoTimeout(webserver.getReadTimeout());
+        channel.register(selector, SelectionKey.OP_READ, connection);
+      } catch (IOException e) {
+        connection.close();
+      }
+    }
+  }
+
+  private void dispatch(final Connection connection) {
+    try {
+      connection.channel.configureBlocking(true);
+    } catch (IOException e) {
+      connection.close();
+      return;
+    }
+    connection.queuedAt = System.nanoTime();
+    boolean accepted = connection.server.submitNio(
+      new Runnable() {
+        @Override
+        public void run() {
+          if (connection.server.executeNio(connection)) {
+            park(connection);
+          } else {
+            connection.close();
+          }
+        }
+      },
+      connection.channel.socket()
+    );
+    if (!accepted) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Hands a connection back to the selector to wait for its next request
+   */
+  private void park(final Connection connection) {
+    connection.served = true;
+    connection.lastActive = System.currentTimeMillis();
+    if (!running) {
+      connection.close();
+      return;
+    }
+    try {
+      connection.channel.configureBlocking(false);
+    } catch (IOException e) {
+      connection.close();
+      return;
+    }
+    submit(
+      new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connection.channel.register(
+              selector,
+              SelectionKey.OP_READ,
+              connection
+            );
+          } catch (IOException e) {
+            connection.close();
+          }
+        }
+      }
+    );
+  }
+
+  private void closeIdle() {
+    long now = System.currentTimeMillis();
+    for (SelectionKey key : selector.keys()) {
+      Object attachment = key.attachment();
+      if (!(attachment instanceof Connection)) {
+        continue;
+      }
+      Connection connection = (Connection) attachment;
+      // a new connection gets the read timeout to send its first request
+      long timeout = connection.served
+        ? connection.server.getKeepAliveTimeout()
+        : connection.server.getReadTimeout();
+      if (timeout > 0 && now - connection.lastActive > timeout) {
+        key.cancel();
+        connection.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.foxdebug.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Requests waiting for the JS handler. Entries are removed as soon as they
+ * are answered or time out, and the number of requests in flight is capped
+ * so a stuck handler can't pile up blocked workers.
+ */
+class PendingRequests {
+
+  static final int DEFAULT_MAX_PENDING = 64;
+
+  private final ConcurrentHashMap<String, PendingResponse> pending = new ConcurrentHashMap<String, PendingResponse>();
+  private final int maxPending;
+  private final Semaphore slots;
+
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong late = new AtomicLong();
+
+  PendingRequests(int maxPending) {
+    this.maxPending = maxPending;
+    this.slots = new Semaphore(maxPending);
+  }
+
+  /**
+   * Registers a request
+   *
+   * @param requestId
+   * @return the hand-off to wait on, or null if too many requests are in
+   * flight
+   */
+  PendingResponse register(String requestId) {
+    if (!slots.tryAcquire()) {
+      rejected.incrementAndGet();
+      return null;
+    }
+    PendingResponse response = new PendingResponse();
+    pending.put(requestId, response);
+    return response;
+  }
+
+  /**
+   * Waits for the response
+   *
+   * @param response as returned by register()
+   * @param timeout  milliseconds
+   * @return the response, or null if it timed out
+   * @throws InterruptedException
+   */
+  JSONObject await(PendingResponse response, long timeout)
+    throws InterruptedException {
+    JSONObject result = response.await(timeout);
+    if (result == null) {
+      timedOut.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Drops the entry and frees its slot. Must be called exactly once for
+   * every successful register(), whether or not the request was answered.
+   *
+   * @param requestId
+   */
+  void release(String requestId) {
+    pending.remove(requestId);
+    slots.release();
+  }
+
+  /**
+   * Delivers a response
+   *
+   * @param requestId
+   * @param response
+   * @param stream    body of a streaming response, or null
+   * @return false if the request is no longer waiting
+   */
+  boolean complete(String requestId, JSONObject response, ResponseStream stream) {
+    PendingResponse waiting = pending.remove(requestId);
+    if (waiting == null) {
+      late.incrementAndGet();
+      return false;
+    }
+    completed.incrementAndGet();
+    waiting.complete(response, stream);
+    return true;
+  }
+
+  int size() {
+    return pending.size();
+  }
+
+  JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("pending", pending.size());
+    json.put("maxPending", maxPending);
+    json.put("completed", completed.get());
+    json.put("timedOut", timedOut.get());
+    json.put("rejected", rejected.get());
+    json.put("late", late.get());
+    return json;
+  }
+}
@@ -0,0 +1,49 @@
+package com.foxdebug.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+/**
+ * Hand-off point between a NanoHTTPD worker waiting in serve() and the
+ * Cordova thread delivering the JS response through Server.send().
+ */
+class PendingResponse {
+
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private volatile JSONObject response;
+  private volatile ResponseStream stream;
+
+  /**
+   * Completes the request and wakes the waiting worker.
+   *
+   * @param response the response object sent by the JS handler
+   * @param stream   body of a streaming response, or null
+   */
+  void complete(JSONObject response, ResponseStream stream) {
+    this.response = response;
+    this.stream = stream;
+    latch.countDown();
+  }
+
+  /**
+   * @return the body of a streaming response, set before the worker wakes
+   */
+  ResponseStream stream() {
+    return stream;
+  }
+
+  /**
+   * Blocks until the response arrives or the timeout elapses.
+   *
+   * @param timeout timeout in milliseconds
+   * @return the response, or null if the timeout elapsed
+   * @throws InterruptedException
+   */
+  JSONObject await(long timeout) throws InterruptedException {
+    if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+      return null;
+    }
+    return response;
+  }
+}
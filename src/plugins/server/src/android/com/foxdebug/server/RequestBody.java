@@ -0,0 +1,151 @@
+package com.foxdebug.server;
+
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Response;
+import fi.iki.elonen.NanoHTTPD.ResponseException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Body of a request forwarded to the JS handler. Small bodies are kept in
+ * memory, as text or raw bytes, anything larger is streamed to a temp file
+ * whose URI is handed to JS instead.
+ */
+class RequestBody {
+
+  static final long DEFAULT_MEMORY_LIMIT = 64 * 1024;
+  static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+  static final RequestBody EMPTY = new RequestBody(null, null, null, 0);
+
+  final String text;
+  final byte[] bytes;
+  final File file;
+  final long length;
+
+  private RequestBody(String text, byte[] bytes, File file, long length) {
+    this.text = text;
+    this.bytes = bytes;
+    this.file = file;
+    this.length = length;
+  }
+
+  /**
+   * Reads the body of the request
+   *
+   * @param session
+   * @param tempDir     directory for spilled bodies
+   * @param memoryLimit  largest body kept in memory
+   * @param maxSize      largest accepted body
+   * @param inlineBinary keep small binary bodies in memory as bytes instead
+   *                     of spilling them
+   * @return
+   * @throws IOException
+   * @throws ResponseException if the body is too large or malformed
+   */
+  static RequestBody read(
+    IHTTPSession session,
+    File tempDir,
+    long memoryLimit,
+    long maxSize,
+    boolean inlineBinary
+  ) throws IOException, ResponseException {
+    String contentLength = session.getHeaders().get("content-length");
+    if (contentLength == null) {
+      return EMPTY;
+    }
+
+    long length;
+    try {
+      length = Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      throw new ResponseException(
+        Response.Status.BAD_REQUEST,
+        "Invalid Content-Length"
+      );
+    }
+    if (length <= 0) {
+      return EMPTY;
+    }
+    if (maxSize >= 0 && length > maxSize) {
+      throw new ResponseException(
+        Response.Status.PAYLOAD_TOO_LARGE,
+        "Request body exceeds " + maxSize + " bytes"
+      );
+    }
+
+    InputStream in = session.getInputStream();
+    String contentType = session.getHeaders().get("content-type");
+    boolean text = isText(contentType);
+    if (length <= memoryLimit && (text || inlineBinary)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+      copy(in, out, length);
+      if (!text) {
+        return new RequestBody(null, out.toByteArray(), null, length);
+      }
+      return new RequestBody(
+        new String(out.toByteArray(), StandardCharsets.UTF_8),
+        null,
+        null,
+        length
+      );
+    }
+
+    if (!tempDir.exists() && !tempDir.mkdirs()) {
+      throw new IOException("Unable to create " + tempDir);
+    }
+    File file = File.createTempFile("body", ".tmp", tempDir);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      copy(in, out, length);
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    } finally {
+      out.close();
+    }
+    return new RequestBody(null, null, file, length);
+  }
+
+  /**
+   * Removes the spilled body, if any
+   */
+  void delete() {
+    if (file != null) {
+      file.delete();
+    }
+  }
+
+  private static boolean isText(String contentType) {
+    if (contentType == null) {
+      return true;
+    }
+    contentType = contentType.toLowerCase();
+    return (
+      contentType.startsWith("text/") ||
+      contentType.contains("json") ||
+      contentType.contains("xml") ||
+      contentType.contains("javascript") ||
+      contentType.startsWith("application/x-www-form-urlencoded")
+    );
+  }
+
+  private static void copy(InputStream in, OutputStream out, long length)
+    throws IOException {
+    byte[] buffer = new byte[(int) Math.min(length, 16 * 1024)];
+    long remaining = length;
+    while (remaining > 0) {
+      int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) {
+        throw new IOException("Request body ended early");
+      }
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package com.foxdebug.server;
+
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Byte-bounded LRU cache of responses the JS handler marked cacheable, so
+ * identical GET requests are answered without crossing the bridge.
+ * <p>
+ * A response opts in with "cache": ttl or "cache": { "ttl": ms, "vary":
+ * ["accept-language", ...] }.
+ */
+class ResponseCache {
+
+  static final long DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+
+  private static class Entry {
+
+    final String path;
+    final String base;
+    final JSONObject response;
+    final long expiresAt;
+    final long size;
+
+    Entry(
+      String path,
+      String base,
+      JSONObject response,
+      long expiresAt,
+      long size
+    ) {
+      this.path = path;
+      this.base = base;
+      this.response = response;
+      this.expiresAt = expiresAt;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Request headers the cached responses of one URL vary on, dropped with
+   * the last of those responses
+   */
+  private static class Variants {
+
+    List<String> vary;
+    int count = 0;
+
+    Variants(List<String> vary) {
+      this.vary = vary;
+    }
+  }
+
+  private final long maxSize;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+    16,
+    0.75f,
+    true
+  );
+  // guarded by entries, like size
+  private final HashMap<String, Variants> varyHeaders = new HashMap<String, Variants>();
+  private long size = 0;
+
+  ResponseCache(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Looks up a cached response for the request
+   *
+   * @param session
+   * @return the response object as sent by the handler, or null
+   */
+  JSONObject get(IHTTPSession session) {
+    if (!Method.GET.equals(session.getMethod())) {
+      return null;
+    }
+    String base = baseKey(session);
+
+    synchronized (entries) {
+      Variants variants = varyHeaders.get(base);
+      if (variants == null) {
+        return null;
+      }
+      String key = key(base, variants.vary, session.getHeaders());
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expiresAt < System.currentTimeMillis()) {
+        remove(key);
+        return null;
+      }
+      return entry.response;
+    }
+  }
+
+  /**
+   * Stores the response if the handler marked it cacheable
+   *
+   * @param session
+   * @param response response object sent by the handler
+   */
+  void put(IHTTPSession session, JSONObject response) {
+    if (
+      !Method.GET.equals(session.getMethod()) ||
+      !response.has("cache") ||
+      !response.has("body")
+    ) {
+      return;
+    }
+
+    long ttl;
+    List<String> vary = new ArrayList<String>();
+    JSONObject spec = response.optJSONObject("cache");
+    if (spec != null) {
+      ttl = spec.optLong("ttl", 0);
+      JSONArray varyOption = spec.optJSONArray("vary");
+      if (varyOption != null) {
+        for (int i = 0; i < varyOption.length(); i++) {
+          vary.add(varyOption.optString(i).toLowerCase());
+        }
+      }
+    } else {
+      ttl = response.optLong("cache", 0);
+    }
+    if (ttl <= 0) {
+      return;
+    }
+    Collections.sort(vary);
+
+    // rough in-memory size: UTF-16 or raw body plus headers and bookkeeping
+    Object body = response.opt("body");
+    long bodySize = body instanceof byte[]
+      ? ((byte[]) body).length
+      : String.valueOf(body).length() * 2L;
+    long entrySize =
+      bodySize + response.optString("headers").length() * 2L + 256;
+    if (entrySize > maxSize) {
+      return;
+    }
+
+    String base = baseKey(session);
+    String key = key(base, vary, session.getHeaders());
+
+    synchronized (entries) {
+      remove(key);
+      Variants variants = varyHeaders.get(base);
+      if (variants != null && !variants.vary.equals(vary)) {
+        // responses keyed by the old list can't be looked up anymore
+        Iterator<Entry> values = entries.values().iterator();
+        while (values.hasNext()) {
+          Entry entry = values.next();
+          if (entry.base.equals(base)) {
+            values.remove();
+            removed(entry);
+          }
+        }
+        variants = varyHeaders.get(base);
+      }
+      if (variants == null) {
+        variants = new Variants(vary);
+        varyHeaders.put(base, variants);
+      }
+      variants.count++;
+      entries.put(
+        key,
+        new Entry(
+          session.getUri(),
+          base,
+          response,
+          System.currentTimeMillis() + ttl,
+          entrySize
+        )
+      );
+      size += entrySize;
+
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (size > maxSize && eldest.hasNext()) {
+        Entry entry = eldest.next();
+        eldest.remove();
+        removed(entry);
+      }
+    }
+  }
+
+  /**
+   * Drops cached responses whose path starts with the given prefix
+   *
+   * @param pathPrefix URL path prefix, null drops everything
+   */
+  void invalidate(String pathPrefix) {
+    synchronized (entries) {
+      Iterator<Entry> values = entries.values().iterator();
+      while (values.hasNext()) {
+        Entry entry = values.next();
+        if (pathPrefix == null || entry.path.startsWith(pathPrefix)) {
+          values.remove();
+          removed(entry);
+        }
+      }
+    }
+  }
+
+  private void remove(String key) {
+    Entry removed = entries.remove(key);
+    if (removed != null) {
+      removed(removed);
+    }
+  }
+
+  /**
+   * Bookkeeping for an entry taken out of entries, called with its lock held
+   *
+   * @param entry
+   */
+  private void removed(Entry entry) {
+    size -= entry.size;
+    Variants variants = varyHeaders.get(entry.base);
+    if (variants != null && --variants.count <= 0) {
+      varyHeaders.remove(entry.base);
+    }
+  }
+
+  private static String baseKey(IHTTPSession session) {
+    String query = session.getQueryParameterString();
+    return query == null ? session.getUri() : session.getUri() + "?" + query;
+  }
+
+  private static String key(
+    String base,
+    List<String> vary,
+    Map<String, String> headers
+  ) {
+    StringBuilder key = new StringBuilder(base);
+    for (String name : vary) {
+      key.append('\n').append(name).append(':').append(headers.get(name));
+    }
+    return key.toString();
+  }
+}
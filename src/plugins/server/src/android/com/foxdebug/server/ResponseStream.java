@@ -0,0 +1,123 @@
+package com.foxdebug.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body of a streaming response. The JS handler pushes chunks through
+ * Server.write and finishes with Server.end, while NanoHTTPD reads them and
+ * sends them with chunked transfer encoding.
+ */
+class ResponseStream extends InputStream {
+
+  private static final byte[] END = new byte[0];
+
+  private final LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+  private final long timeout;
+  private final Runnable onClose;
+  private byte[] current;
+  private int position;
+  private volatile boolean closed = false;
+  private boolean ended = false;
+
+  /**
+   * @param timeout milliseconds to wait for the next chunk before the
+   *                response is aborted
+   */
+  ResponseStream(long timeout) {
+    this(timeout, null);
+  }
+
+  /**
+   * @param timeout milliseconds to wait for the next chunk before the
+   *                response is aborted
+   * @param onClose called once the response is done, sent or aborted
+   */
+  ResponseStream(long timeout, Runnable onClose) {
+    this.timeout = timeout;
+    this.onClose = onClose;
+  }
+
+  /**
+   * Queues a chunk
+   *
+   * @param chunk
+   * @return false if the client is gone and the chunk was dropped
+   */
+  boolean write(byte[] chunk) {
+    if (closed) {
+      return false;
+    }
+    if (chunk.length > 0) {
+      chunks.add(chunk);
+    }
+    return true;
+  }
+
+  /**
+   * Marks the end of the body
+   */
+  void end() {
+    chunks.add(END);
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return n == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (ended) {
+      return -1;
+    }
+
+    if (current == null || position == current.length) {
+      try {
+        // blocks until the handler writes more or ends the response
+        current = chunks.poll(timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for data");
+      }
+      position = 0;
+      if (current == null) {
+        throw new IOException("Response stream timed out");
+      }
+      if (current == END) {
+        ended = true;
+        return -1;
+      }
+    }
+
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current == null ? 0 : current.length - position;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    chunks.clear();
+    if (onClose != null) {
+      onClose.run();
+    }
+  }
+}
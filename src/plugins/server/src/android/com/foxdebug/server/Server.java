@@ -1,10 +1,14 @@
 package com.foxdebug.server;
 
+import android.util.Base64;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import org.apache.cordova.*;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 public class Server extends CordovaPlugin {
 
@@ -43,6 +47,42 @@ public class Server extends CordovaPlugin {
       this.send(args, callbackContext);
       return true;
     }
+    if ("write".equals(action)) {
+      this.write(args, callbackContext);
+      return true;
+    }
+    if ("end".equals(action)) {
+      this.end(args, callbackContext);
+      return true;
+    }
+    if ("pending".equals(action)) {
+      this.pending(args, callbackContext);
+      return true;
+    }
+    if ("stats".equals(action)) {
+      this.stats(args, callbackContext);
+      return true;
+    }
+    if ("reload".equals(action)) {
+      this.reload(args, callbackContext);
+      return true;
+    }
+    if ("sendBatch".equals(action)) {
+      this.sendBatch(args, callbackContext);
+      return true;
+    }
+    if ("invalidate".equals(action)) {
+      this.invalidate(args, callbackContext);
+      return true;
+    }
+    if ("invalidateFiles".equals(action)) {
+      this.invalidateFiles(args, callbackContext);
+      return true;
+    }
+    if ("setRoutes".equals(action)) {
+      this.setRoutes(args, callbackContext);
+      return true;
+    }
     return false; // Returning false results in a "MethodNotFound" error.
   }
 
@@ -55,11 +95,21 @@ public class Server extends CordovaPlugin {
   private void start(JSONArray args, CallbackContext callbackContext)
     throws JSONException, IOException {
     Integer port = 8080;
+    JSONObject options = null;
 
-    if (args.length() == 1) {
+    if (args.length() >= 1) {
       port = args.getInt(0);
     }
 
+    if (args.length() >= 2) {
+      options = args.optJSONObject(1);
+    }
+
+    long responseTimeout = NanoHTTPDWebserver.DEFAULT_RESPONSE_TIMEOUT;
+    if (options != null) {
+      responseTimeout = options.optLong("timeout", responseTimeout);
+    }
+
     NanoHTTPDWebserver server = servers.get(port);
     if (server != null) {
       callbackContext.success("Server started on port " + port);
@@ -67,7 +117,9 @@ public class Server extends CordovaPlugin {
     }
 
     try {
-      server = new NanoHTTPDWebserver(port, cordova.getContext());
+      server =
+        new NanoHTTPDWebserver(port, cordova.getContext(), responseTimeout);
+      server.configure(options);
       server.start();
       servers.put(port, server);
       callbackContext.success("Server started on port " + port);
@@ -92,6 +144,63 @@ public class Server extends CordovaPlugin {
     server.onRequestCallbackContext = callbackContext;
   }
 
+  /**
+   * Replaces the static routes served without the JS handler
+   *
+   * @param args            [port, [{prefix, root, index, fallback}]]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void setRoutes(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not started on port " + port);
+      return;
+    }
+    server.setRoutes(args.optJSONArray(1));
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Drops cached handler responses under the given URL path prefix
+   *
+   * @param args            [port, pathPrefix?]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void invalidate(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not started on port " + port);
+      return;
+    }
+    server.invalidate(args.isNull(1) ? null : args.getString(1));
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Forgets cached metadata of the files under the given URI prefix
+   *
+   * @param args            [port, uriPrefix?]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void invalidateFiles(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not started on port " + port);
+      return;
+    }
+    server.invalidateFiles(args.isNull(1) ? null : args.getString(1));
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
   /**
    * Stops the server
    *
@@ -114,7 +223,7 @@ public class Server extends CordovaPlugin {
   /**
    * Will be called if the js context sends an response to the webserver
    *
-   * @param args            {UUID: {...}}
+   * @param args            [port, UUID, {...}, binaryBody?]
    * @param callbackContext
    * @throws JSONException
    */
@@ -128,7 +237,153 @@ public class Server extends CordovaPlugin {
       );
       return;
     }
-    server.responses.put(args.getString(1), args.get(2));
+    byte[] body = null;
+    if (args.length() > 3 && !args.isNull(3)) {
+      // ArrayBuffer arguments are base64 encoded by the bridge
+      body = Base64.decode(args.getString(3), Base64.DEFAULT);
+    }
+    server.completeRequest(args.getString(1), args.getJSONObject(2), body);
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Completes several waiting requests in one bridge call
+   *
+   * @param args            [port, [{requestId, response}, ...]]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void sendBatch(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.sendPluginResult(
+        new PluginResult(PluginResult.Status.ERROR, "Server not running")
+      );
+      return;
+    }
+    JSONArray responses = args.getJSONArray(1);
+    for (int i = 0; i < responses.length(); i++) {
+      JSONObject item = responses.getJSONObject(i);
+      server.completeRequest(
+        item.optString("requestId", null),
+        item.optJSONObject("response")
+      );
+    }
     callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
   }
+
+  /**
+   * Appends a chunk to a response opened with send(id, {stream: true})
+   *
+   * @param args            [port, UUID, chunk, isBinary]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void write(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not running");
+      return;
+    }
+    byte[] chunk = args.optBoolean(3)
+      ? Base64.decode(args.getString(2), Base64.DEFAULT)
+      : args.getString(2).getBytes(StandardCharsets.UTF_8);
+    if (!server.writeStream(args.getString(1), chunk)) {
+      callbackContext.error("Response closed");
+      return;
+    }
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Finishes a streaming response
+   *
+   * @param args            [port, UUID]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void end(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not running");
+      return;
+    }
+    if (!server.endStream(args.getString(1))) {
+      callbackContext.error("Response closed");
+      return;
+    }
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Notifies live reload clients about changed files
+   *
+   * @param args            [port, [fileUri, ...]], no files reloads the page
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void reload(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not running");
+      return;
+    }
+    ArrayList<String> fileUris = new ArrayList<String>();
+    JSONArray list = args.optJSONArray(1);
+    if (list != null) {
+      for (int i = 0; i < list.length(); i++) {
+        fileUris.add(list.getString(i));
+      }
+    }
+    server.notifyChanged(fileUris);
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK));
+  }
+
+  /**
+   * Returns per-route request timings, the same data as /__acode/metrics
+   *
+   * @param args            [port, reset?]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void stats(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not running");
+      return;
+    }
+    JSONObject stats = server.metrics.toJSON();
+    if (args.optBoolean(1)) {
+      server.metrics.reset();
+    }
+    callbackContext.success(stats);
+  }
+
+  /**
+   * Reports the depth of the pending-request table
+   *
+   * @param args            [port]
+   * @param callbackContext
+   * @throws JSONException
+   */
+  private void pending(JSONArray args, CallbackContext callbackContext)
+    throws JSONException {
+    Integer port = args.getInt(0);
+    NanoHTTPDWebserver server = this.servers.get(port);
+    if (server == null) {
+      callbackContext.error("Server not running");
+      return;
+    }
+    callbackContext.success(server.getPendingStats());
+  }
 }
@@ -0,0 +1,209 @@
+package com.foxdebug.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Per-route request timings of the preview server, recorded into lock-free
+ * histograms.
+ */
+class ServerMetrics {
+
+  static final String PATH = "/__acode/metrics";
+
+  /**
+   * Log2 histogram of durations in microseconds. Percentiles are reported as
+   * the upper bound of the bucket they fall in.
+   */
+  static class Histogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      int bucket = Math.min(
+        BUCKETS - 1,
+        64 - Long.numberOfLeadingZeros(micros)
+      );
+      buckets.incrementAndGet(bucket);
+      count.incrementAndGet();
+      sum.addAndGet(micros);
+      long current;
+      while (micros > (current = max.get())) {
+        if (max.compareAndSet(current, micros)) {
+          break;
+        }
+      }
+    }
+
+    private double percentile(double p, long total) {
+      long rank = (long) Math.ceil(total * p);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0) {
+          return (i == 0 ? 1 : 1L << i) / 1000.0;
+        }
+      }
+      return max.get() / 1000.0;
+    }
+
+    JSONObject toJSON() throws JSONException {
+      long total = count.get();
+      JSONObject json = new JSONObject();
+      json.put("count", total);
+      if (total == 0) {
+        return json;
+      }
+      json.put("mean", sum.get() / 1000.0 / total);
+      json.put("p50", percentile(0.5, total));
+      json.put("p90", percentile(0.9, total));
+      json.put("p99", percentile(0.99, total));
+      json.put("max", max.get() / 1000.0);
+      return json;
+    }
+  }
+
+  static class RouteMetrics {
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final Histogram queue = new Histogram();
+    final Histogram handler = new Histogram();
+    final Histogram fileOpen = new Histogram();
+    final Histogram total = new Histogram();
+
+    JSONObject toJSON() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("requests", requests.get());
+      json.put("bytes", bytes.get());
+      json.put("queueMs", queue.toJSON());
+      json.put("handlerMs", handler.toJSON());
+      json.put("fileOpenMs", fileOpen.toJSON());
+      json.put("totalMs", total.toJSON());
+      return json;
+    }
+  }
+
+  /**
+   * Timings of a request in flight, collected on the worker thread
+   */
+  static class Timer {
+
+    final long start = System.nanoTime();
+    long queue = -1;
+    long handler = -1;
+    long fileOpen = -1;
+    String route = "unknown";
+  }
+
+  private final ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<String, RouteMetrics>();
+  private final long startedAt = System.currentTimeMillis();
+
+  private RouteMetrics route(String name) {
+    RouteMetrics metrics = routes.get(name);
+    if (metrics == null) {
+      RouteMetrics created = new RouteMetrics();
+      metrics = routes.putIfAbsent(name, created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+    return metrics;
+  }
+
+  /**
+   * Records a finished request
+   *
+   * @param timer
+   * @param bytesSent
+   */
+  void record(Timer timer, long bytesSent) {
+    RouteMetrics metrics = route(timer.route);
+    metrics.requests.incrementAndGet();
+    metrics.bytes.addAndGet(bytesSent);
+    if (timer.queue >= 0) {
+      metrics.queue.record(timer.queue);
+    }
+    if (timer.handler >= 0) {
+      metrics.handler.record(timer.handler);
+    }
+    if (timer.fileOpen >= 0) {
+      metrics.fileOpen.record(timer.fileOpen);
+    }
+    metrics.total.record(System.nanoTime() - timer.start);
+  }
+
+  /**
+   * Response body that records the request once it has been sent and closed
+   */
+  class Tracked extends FilterInputStream {
+
+    private final Timer timer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private long sent = 0;
+
+    Tracked(InputStream data, Timer timer) {
+      super(data);
+      this.timer = timer;
+    }
+
+    InputStream source() {
+      return in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        sent++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        sent += n;
+      }
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed.compareAndSet(false, true)) {
+        record(timer, sent);
+      }
+      super.close();
+    }
+  }
+
+  JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("uptime", System.currentTimeMillis() - startedAt);
+    JSONObject routesJson = new JSONObject();
+    for (Map.Entry<String, RouteMetrics> entry : routes.entrySet()) {
+      routesJson.put(entry.getKey(), entry.getValue().toJSON());
+    }
+    json.put("routes", routesJson);
+    return json;
+  }
+
+  void reset() {
+    routes.clear();
+  }
+}
@@ -0,0 +1,102 @@
+package com.foxdebug.server;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * URL prefix mapped to a local root that is served natively, without
+ * forwarding the request to the JS handler.
+ * <p>
+ * { "prefix": "/", "root": "file:///...", "index": "index.html" | [...],
+ * "fallback": "index.html", "listing": false }
+ * <p>
+ * The fallback is served for navigation requests that match no file, so a
+ * single-page app can route on the client. Directories without an index are
+ * listed when "listing" is set.
+ */
+class StaticRoute {
+
+  final String prefix;
+  final String root;
+  final String[] index;
+  final String fallback;
+  final boolean listing;
+
+  StaticRoute(
+    String prefix,
+    String root,
+    String[] index,
+    String fallback,
+    boolean listing
+  ) {
+    this.prefix = normalizePrefix(prefix);
+    this.root = root.endsWith("/") ? root : root + "/";
+    this.index = index;
+    this.fallback = fallback;
+    this.listing = listing;
+  }
+
+  static StaticRoute fromJSON(JSONObject route) throws JSONException {
+    String[] index;
+    JSONArray indexOption = route.optJSONArray("index");
+    if (indexOption != null) {
+      index = new String[indexOption.length()];
+      for (int i = 0; i < index.length; i++) {
+        index[i] = indexOption.getString(i);
+      }
+    } else if (route.has("index") && route.isNull("index")) {
+      index = new String[0];
+    } else {
+      index = new String[] { route.optString("index", "index.html") };
+    }
+    return new StaticRoute(
+      route.optString("prefix", "/"),
+      route.getString("root"),
+      index,
+      route.has("fallback") ? route.getString("fallback") : null,
+      route.optBoolean("listing", false)
+    );
+  }
+
+  /**
+   * Checks whether the given request path belongs to this route
+   *
+   * @param path decoded request path
+   * @return
+   */
+  boolean matches(String path) {
+    return (
+      path.startsWith(prefix) || (path + "/").equals(prefix)
+    );
+  }
+
+  /**
+   * Path of the request relative to the route root, or null if the path
+   * tries to escape the root
+   *
+   * @param path decoded request path
+   * @return
+   */
+  String relativePath(String path) {
+    String relative = path.length() > prefix.length()
+      ? path.substring(prefix.length())
+      : "";
+    for (String segment : relative.split("/")) {
+      if ("..".equals(segment)) {
+        return null;
+      }
+    }
+    while (relative.startsWith("/")) {
+      relative = relative.substring(1);
+    }
+    return relative;
+  }
+
+  private static String normalizePrefix(String prefix) {
+    if (!prefix.startsWith("/")) {
+      prefix = "/" + prefix;
+    }
+    return prefix.endsWith("/") ? prefix : prefix + "/";
+  }
+}
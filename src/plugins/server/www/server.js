@@ -1,5 +1,16 @@
-module.exports = function (port, onRequest, onError) {
-  cordova.exec(onRequest, onError, 'Server', 'start', [port]);
+function isBinary(data) {
+  return data instanceof ArrayBuffer || ArrayBuffer.isView(data);
+}
+
+function toArrayBuffer(data) {
+  if (ArrayBuffer.isView(data)) {
+    return data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+  }
+  return data;
+}
+
+module.exports = function (port, onRequest, onError, options) {
+  cordova.exec(onRequest, onError, 'Server', 'start', [port, options || {}]);
   return {
     stop: function (onSuccess, onError) {
       onSuccess = onSuccess || function () { };
@@ -9,11 +20,85 @@ module.exports = function (port, onRequest, onError) {
     send: function (req_id, data, onSuccess, onError) {
       onSuccess = onSuccess || function () { };
       onError = onError || console.error.bind(console);
-      cordova.exec(onSuccess, onError, 'Server', 'send', [port, req_id, data]);
+      var args = [port, req_id, data];
+      if (data && isBinary(data.body)) {
+        // raw body travels as its own ArrayBuffer argument
+        args = [port, req_id, Object.assign({}, data, { body: '' }), toArrayBuffer(data.body)];
+      }
+      cordova.exec(onSuccess, onError, 'Server', 'send', args);
+    },
+    write: function (req_id, chunk, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      // ArrayBuffers are base64 encoded by the bridge
+      var binary = isBinary(chunk);
+      cordova.exec(onSuccess, onError, 'Server', 'write', [port, req_id, binary ? toArrayBuffer(chunk) : chunk, binary]);
+    },
+    end: function (req_id, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'end', [port, req_id]);
+    },
+    reload: function (fileUris, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'reload', [port, fileUris || []]);
+    },
+    pending: function (onSuccess, onError) {
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'pending', [port]);
+    },
+    stats: function (reset, onSuccess, onError) {
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'stats', [port, !!reset]);
+    },
+    sendBatch: function (responses, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      var base64 = cordova.require('cordova/base64');
+      responses = responses.map(function (item) {
+        var response = item.response;
+        if (!response || !isBinary(response.body)) return item;
+        return {
+          requestId: item.requestId,
+          response: Object.assign({}, response, {
+            body: base64.fromArrayBuffer(toArrayBuffer(response.body)),
+            bodyEncoding: 'base64'
+          })
+        };
+      });
+      cordova.exec(onSuccess, onError, 'Server', 'sendBatch', [port, responses]);
+    },
+    setRoutes: function (routes, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'setRoutes', [port, routes]);
+    },
+    invalidate: function (pathPrefix, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'invalidate', [port, pathPrefix || null]);
+    },
+    invalidateFiles: function (uriPrefix, onSuccess, onError) {
+      onSuccess = onSuccess || function () { };
+      onError = onError || console.error.bind(console);
+      cordova.exec(onSuccess, onError, 'Server', 'invalidateFiles', [port, uriPrefix || null]);
     },
     setOnRequestHandler: function (onRequest, onError) {
       onError = onError || console.error.bind(console);
-      cordova.exec(onRequest, onError, 'Server', 'setOnRequestHandler', [port]);
+      // a binary body arrives as a second callback argument, and with the
+      // batchRequests option requests arrive as arrays
+      var handler = function (req, body) {
+        if (body instanceof ArrayBuffer) {
+          req.body = body;
+          onRequest(req);
+        } else if (Array.isArray(req)) {
+          req.forEach(function (r) { onRequest(r); });
+        } else {
+          onRequest(req);
+        }
+      };
+      cordova.exec(handler, onError, 'Server', 'setOnRequestHandler', [port]);
     },
     port: port
   }